@@ -9,13 +9,24 @@ package br.ufma.ecp;
 
 import static br.ufma.ecp.token.TokenType.*;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
+import br.ufma.ecp.token.Interner;
+import br.ufma.ecp.token.Source;
 import br.ufma.ecp.token.Token; 
 
 public class App 
@@ -42,70 +53,269 @@ public class App
     }
 
 
-    private static String fromFile(File file) {        
+    // mapeia o arquivo em memoria; o Scanner le direto do mapeamento
+    private static ByteBuffer fromFile(File file) {
 
-        byte[] bytes;
-        try {
-            bytes = Files.readAllBytes(file.toPath());
-            String textoDoArquivo = new String(bytes, "UTF-8");
-            return textoDoArquivo;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return "";
-    } 
+        return ByteBuffer.allocate(0);
+    }
+
+
+    // o VM de cada subrotina vai para out assim que ela termina; em arquivos
+    // grandes as subrotinas sao geradas em paralelo
+    private static void parse(Parser parser, OutputStream out, String name, Diagnostics diagnostics, boolean parallel) {
+        parser.setOutput(out);
+        try {
+            if (parallel)
+                parser.parse(ForkJoinPool.commonPool());
+            else
+                parser.parse();
+        } catch (RuntimeException e) {
+            // erro interno do compilador: sempre aparece, mesmo depois de erros de sintaxe
+            diagnostics.report(name, 0, 0, "internal error: " + e);
+        }
+    }
+
+
+    // compila um arquivo; se houver erros o .vm parcial e apagado.
+    // Scanner, tokens e Parser vem do contexto da thread e sao reaproveitados;
+    // no fim o contexto solta o fonte e o interner desta compilacao.
+    // Com registry o arquivo e uma de varias tarefas paralelas: a separacao dos
+    // tokens e o parse dele ficam sequenciais, para a tarefa nao esperar por
+    // subtarefas no mesmo pool.
+    // interner e a tabela de identificadores da compilacao, descartada no fim dela
+    private static void compile(File file, Interner interner, ClassIndex index, ClassRegistry registry,
+            Diagnostics diagnostics) {
+        var inputFileName = file.getAbsolutePath();
+        var pos = inputFileName.lastIndexOf('.');
+        var outputFile = new File(inputFileName.substring(0, pos) + ".vm");
+
+        var source = new Source(fromFile(file), file.getName(), interner);
+        boolean parallel = registry == null && source.length() >= 2 * ParallelTokenizer.MIN_CHUNK;
+        var context = CompilationContext.forThread();
+        var parser = context.reset(source, parallel);
+        try {
+            var fileDiagnostics = context.diagnostics();
+            parser.setClassIndex(index);
+            parser.setRegistry(registry);
+            try (var out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                parse(parser, out, file.getName(), fileDiagnostics, parallel);
+            } catch (IOException e) {
+                fileDiagnostics.report(file.getName(), 0, 0, "could not write " + outputFile + ": " + e.getMessage());
+            } finally {
+                // se o parser nao chegou a publicar, quem espera por esta classe e liberado
+                if (registry != null)
+                    registry.publish(file.getName(), null);
+            }
+            diagnostics.addAll(fileDiagnostics);
+
+            // a interface (.jacki) so fica se a classe compilou
+            var interfaceFile = new File(inputFileName.substring(0, pos) + ".jacki");
+            if (fileDiagnostics.hasErrors()) {
+                outputFile.delete();
+                interfaceFile.delete();
+            } else {
+                try {
+                    ClassInterface.write(interfaceFile.toPath(), parser.facts(), ClassInterface.hash(source.buffer()));
+                } catch (IOException e) {
+                    interfaceFile.delete();
+                }
+            }
+        } finally {
+            context.release();
+        }
+    }
+
+
+    // para compilar so um arquivo: as classes do SO, a propria e as outras da pasta.
+    // Cada outra classe vem do seu .jacki quando ele corresponde ao fonte (ou nao
+    // ha fonte); senao as assinaturas sao lidas do .jack
+    private static ClassIndex index(File file) {
+        var sources = new ArrayList<Source>();
+        sources.add(new Source(fromFile(file), file.getName()));
+
+        var dir = file.getAbsoluteFile().getParentFile();
+        var names = new TreeSet<String>();
+        for (String name : dir.list()) {
+            if (name.endsWith(".jack") || name.endsWith(".jacki"))
+                names.add(name.substring(0, name.lastIndexOf('.')));
+        }
+        names.remove(ClassRegistry.className(file.getName()));
+
+        // as que tem .jacki valido entram direto; as outras sao varridas em paralelo
+        var interfaces = new ArrayList<ClassIndex>();
+        for (String name : names) {
+            var source = new File(dir, name + ".jack");
+            var bytes = source.isFile() ? fromFile(source) : null;
+            var interfacePath = new File(dir, name + ".jacki").toPath();
+            var facts = bytes != null ? ClassInterface.read(interfacePath, ClassInterface.hash(bytes))
+                    : ClassInterface.read(interfacePath);
+            if (facts != null)
+                interfaces.add(facts.signatures());
+            else if (bytes != null)
+                sources.add(new Source(bytes, source.getName()));
+        }
+
+        var index = ClassIndex.build(sources, ForkJoinPool.commonPool());
+        for (var signatures : interfaces)
+            index.addAll(signatures);
+        return index;
+    }
+
+
+    // modo -a: o mesmo .vm, mas pela Ast (AstParser e depois VMGenerator),
+    // sem conferir chamadas entre classes nem gravar o .jacki
+    private static void compileWithAst(File file, Interner interner, Diagnostics diagnostics) {
+        var inputFileName = file.getAbsolutePath();
+        var pos = inputFileName.lastIndexOf('.');
+        var outputFile = new File(inputFileName.substring(0, pos) + ".vm");
+
+        System.out.println("compiling " + inputFileName);
+        var fileDiagnostics = new Diagnostics();
+        var tokens = TokenArray.tokenize(new Source(fromFile(file), file.getName(), interner), fileDiagnostics);
+        try {
+            var ast = new AstParser(tokens, fileDiagnostics).parse();
+            if (ast != null) {
+                try (var out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                    var generator = new VMGenerator(ast, fileDiagnostics);
+                    generator.setOutput(out);
+                    generator.generate();
+                } catch (IOException e) {
+                    fileDiagnostics.report(file.getName(), 0, 0, "could not write " + outputFile + ": " + e.getMessage());
+                }
+            }
+        } catch (RuntimeException e) {
+            // como em parse: o erro interno vira diagnostico e os outros arquivos continuam
+            fileDiagnostics.report(file.getName(), 0, 0, "internal error: " + e);
+        }
+        diagnostics.addAll(fileDiagnostics);
+        if (fileDiagnostics.hasErrors())
+            outputFile.delete();
+    }
+
+
+    // modo -t: so o XML dos tokens, em <nome>T.xml ao lado do .jack
+    private static void writeTokens(File file, Diagnostics diagnostics) {
+        var inputFileName = file.getAbsolutePath();
+        var pos = inputFileName.lastIndexOf('.');
+        var outputFile = new File(inputFileName.substring(0, pos) + "T.xml");
+
+        System.out.println("tokenizing " +  inputFileName);
+        try (var out = new FileOutputStream(outputFile)) {
+            new TokenXmlWriter(out).write(new Source(fromFile(file), file.getName()), diagnostics);
+        } catch (IOException e) {
+            diagnostics.report(file.getName(), 0, 0, "could not write " + outputFile + ": " + e.getMessage());
+        }
+    }
+
+
+    private static void printDiagnostics(Diagnostics diagnostics) {
+        for (Diagnostic d : diagnostics.all())
+            System.err.println(d);
+        if (diagnostics.hasErrors())
+            System.exit(1);
+    }
 
 
     public static void main(String[] args) {
-        if (args.length != 1) {
+        // -t <caminho> gera so o XML dos tokens; -a <caminho> compila pela Ast
+        boolean tokensOnly = args.length == 2 && args[0].equals("-t");
+        boolean viaAst = args.length == 2 && args[0].equals("-a");
+        if (args.length != 1 && !tokensOnly && !viaAst) {
             System.err.println("Please provide a single file path argument.");
             System.exit(1);
         }
+        String path = args[args.length - 1];
+        if (path.equals("-") && viaAst) {
+            System.err.println("-a needs a file or directory, not the standard input.");
+            System.exit(1);
+        }
+
+        if (path.equals("-") && tokensOnly) {
+            var diagnostics = new Diagnostics();
+            try {
+                var scanner = new StreamScanner(Channels.newChannel(System.in), "<stdin>", diagnostics);
+                new TokenXmlWriter(System.out).write(scanner);
+            } catch (IOException e) {
+                diagnostics.report("<stdin>", 0, 0, String.valueOf(e.getMessage()));
+            }
+            printDiagnostics(diagnostics);
+            return;
+        }
+        // "-" compila o que vier pela entrada padrao e escreve o VM na saida padrao
+        // as subrotinas ja terminadas sao escritas mesmo que depois apareca um erro
+        if (path.equals("-")) {
+            var diagnostics = new Diagnostics();
+            var parser = new Parser(new StreamScanner(Channels.newChannel(System.in), "<stdin>", diagnostics),
+                    "<stdin>", diagnostics);
+            parser.setClassIndex(ClassIndex.builtins());
+            parse(parser, System.out, "<stdin>", diagnostics, false);
+            System.out.flush();
+            printDiagnostics(diagnostics);
+            return;
+        }
 
-        File file = new File(args[0]);
+        File file = new File(path);
 
         if (!file.exists()) {
             System.err.println("The file doesn't exist.");
             System.exit(1);
         }
 
+        var diagnostics = new Diagnostics();
+
         // we need to compile every file in the directory
         if (file.isDirectory()) {
+            var files = new ArrayList<File>();
             for (File f : file.listFiles()) {
                 if (f.isFile() && f.getName().endsWith(".jack")) {
-
-                    var inputFileName = f.getAbsolutePath();
-                    var pos = inputFileName.lastIndexOf('.');
-                    var outputFileName = inputFileName.substring(0, pos) + ".vm";
-                    
-                    System.out.println("compiling " +  inputFileName);
-                    var input = fromFile(f);
-                    var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
-                    parser.parse();
-                    var result = parser.VMOutput();
-                    saveToFile(outputFileName, result);
+                    files.add(f);
                 }
 
             }
+            if (tokensOnly) {
+                for (File f : files)
+                    writeTokens(f, diagnostics);
+            } else if (viaAst) {
+                var interner = new Interner();
+                for (File f : files)
+                    compileWithAst(f, interner, diagnostics);
+            } else {
+                // um arquivo por tarefa; as classes se enxergam pelo registro
+                var names = new ArrayList<String>(files.size());
+                for (File f : files)
+                    names.add(f.getName());
+                var registry = new ClassRegistry(names);
+                var index = ClassIndex.builtins();
+                var interner = new Interner();
+                var tasks = new ArrayList<ForkJoinTask<?>>(files.size());
+                for (File f : files) {
+                    System.out.println("compiling " + f.getAbsolutePath());
+                    tasks.add(ForkJoinPool.commonPool().submit(() -> compile(f, interner, index, registry, diagnostics)));
+                }
+                for (var task : tasks)
+                    task.join();
+            }
         // we only compile the single file
         } else if (file.isFile()) {
             if (!file.getName().endsWith(".jack"))  {
                 System.err.println("Please provide a file name ending with .jack");
                 System.exit(1);
+            } else if (tokensOnly) {
+                writeTokens(file, diagnostics);
+            } else if (viaAst) {
+                compileWithAst(file, new Interner(), diagnostics);
             } else {
-                var inputFileName = file.getAbsolutePath();
-                var pos = inputFileName.lastIndexOf('.');
-                var outputFileName = inputFileName.substring(0, pos) + ".vm";
-                
-                System.out.println("compiling " +  inputFileName);
-                var input = fromFile(file);
-                var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
-                parser.parse();
-                var result = parser.VMOutput();
-                saveToFile(outputFileName, result);
-                
+                System.out.println("compiling " + file.getAbsolutePath());
+                compile(file, new Interner(), index(file), null, diagnostics);
             }
         }
+
+        printDiagnostics(diagnostics);
     }
 
 }
\ No newline at end of file
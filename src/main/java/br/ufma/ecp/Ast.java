@@ -0,0 +1,127 @@
+package br.ufma.ecp;
+
+import java.util.Arrays;
+
+/*
+ * Arvore sintatica de uma classe guardada em vetores paralelos de int,
+ * como o TokenArray: cada no e um indice, com tipo, token de origem, um
+ * valor extra e as ligacoes primeiro filho / proximo irmao. Os dados do
+ * no (nome, numero, operador) sao lidos do token no TokenArray.
+ *
+ * Forma de cada no (filhos em ordem):
+ *   CLASS          token = nome; filhos: VAR_DEC (static/field) e SUBROUTINE
+ *   VAR_DEC        token = tipo; value = SymbolTable.Kind.ordinal(); filhos: NAME
+ *   NAME           token = identificador declarado
+ *   SUBROUTINE     token = nome; value = ordinal de CONSTRUCTOR/FUNCTION/METHOD;
+ *                  filhos: VAR_DEC (parametros e locais) e STATEMENTS
+ *   STATEMENTS     filhos: os comandos
+ *   LET            token = variavel; value = 1 se tem indice; filhos: [indice], valor
+ *   IF             filhos: condicao, STATEMENTS, [STATEMENTS do else]
+ *   WHILE          filhos: condicao, STATEMENTS
+ *   DO             filho: CALL
+ *   RETURN         filho: [expressao]
+ *   BINARY         token = operador; filhos: esquerda, direita
+ *   UNARY          token = operador; filho: operando
+ *   INT, STRING, KEYWORD   token = a constante
+ *   VARIABLE       token = identificador
+ *   ARRAY          token = identificador; filho: indice
+ *   CALL           token = primeiro identificador; value = token do segundo
+ *                  (em a.b()) ou -1; filhos: argumentos
+ */
+public class Ast {
+
+    public enum NodeKind {
+        CLASS, VAR_DEC, NAME, SUBROUTINE, STATEMENTS,
+        LET, IF, WHILE, DO, RETURN,
+        BINARY, UNARY, INT, STRING, KEYWORD, VARIABLE, ARRAY, CALL
+    }
+
+    private static final NodeKind[] kindValues = NodeKind.values();
+
+    public static final int NONE = -1;
+
+    private final TokenArray tokens;
+    private byte[] kinds;
+    private int[] tokenIndex;
+    private int[] values;
+    private int[] firstChild;
+    private int[] lastChild;
+    private int[] nextSibling;
+    private int size;
+
+    Ast(TokenArray tokens, int capacity) {
+        this.tokens = tokens;
+        kinds = new byte[capacity];
+        tokenIndex = new int[capacity];
+        values = new int[capacity];
+        firstChild = new int[capacity];
+        lastChild = new int[capacity];
+        nextSibling = new int[capacity];
+    }
+
+    int add(NodeKind kind, int token, int value) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            tokenIndex = Arrays.copyOf(tokenIndex, capacity);
+            values = Arrays.copyOf(values, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            lastChild = Arrays.copyOf(lastChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+        }
+        kinds[size] = (byte) kind.ordinal();
+        tokenIndex[size] = token;
+        values[size] = value;
+        firstChild[size] = NONE;
+        lastChild[size] = NONE;
+        nextSibling[size] = NONE;
+        return size++;
+    }
+
+    // acrescenta child como ultimo filho de parent
+    void append(int parent, int child) {
+        if (firstChild[parent] == NONE)
+            firstChild[parent] = child;
+        else
+            nextSibling[lastChild[parent]] = child;
+        lastChild[parent] = child;
+    }
+
+    void setValue(int node, int value) {
+        values[node] = value;
+    }
+
+    public TokenArray tokens() {
+        return tokens;
+    }
+
+    // a raiz (CLASS) e sempre o no 0
+    public int root() {
+        return 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public NodeKind kind(int node) {
+        return kindValues[kinds[node]];
+    }
+
+    public int token(int node) {
+        return tokenIndex[node];
+    }
+
+    public int value(int node) {
+        return values[node];
+    }
+
+    public int firstChild(int node) {
+        return firstChild[node];
+    }
+
+    public int nextSibling(int node) {
+        return nextSibling[node];
+    }
+
+}
@@ -0,0 +1,436 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.token.TokenType.*;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import br.ufma.ecp.Ast.NodeKind;
+import br.ufma.ecp.SymbolTable.Kind;
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Mesma gramatica do Parser, mas em vez de gerar VM durante a analise
+ * monta uma Ast da classe inteira. O codigo e gerado depois, por
+ * VMGenerator, que enxerga cada subrotina completa. O Parser continua
+ * sendo o caminho rapido, que gera VM direto.
+ */
+public class AstParser {
+    private static class ParseError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final EnumSet<TokenType> TYPES = EnumSet.of(INT, CHAR, BOOLEAN, IDENT);
+    private static final EnumSet<TokenType> RETURN_TYPES = EnumSet.of(VOID, INT, CHAR, BOOLEAN, IDENT);
+    private static final EnumSet<TokenType> SUBROUTINES = EnumSet.of(CONSTRUCTOR, FUNCTION, METHOD);
+    private static final EnumSet<TokenType> CLASS_VARS = EnumSet.of(FIELD, STATIC);
+    private static final EnumSet<TokenType> KEYWORD_CONSTANTS = EnumSet.of(FALSE, NULL, TRUE, THIS);
+    private static final EnumSet<TokenType> UNARY_OPERATORS = EnumSet.of(MINUS, NOT);
+    private static final EnumSet<TokenType> OPERATORS = EnumSet.of(PLUS, MINUS, ASTERISK, SLASH, AND, OR, LT, GT, EQ);
+
+    private final TokenArray.Cursor tokens;
+    private final Ast ast;
+    private final String fileName;
+    private final Diagnostics diagnostics;
+
+    public AstParser(TokenArray tokens) {
+        this(tokens, new Diagnostics());
+    }
+
+    public AstParser(TokenArray tokens, Diagnostics diagnostics) {
+        this.tokens = tokens.cursor();
+        // estimativa: um no a cada ~2 tokens
+        this.ast = new Ast(tokens, Math.max(16, tokens.size() / 2));
+        this.fileName = tokens.source().name();
+        this.diagnostics = diagnostics;
+    }
+
+    // null se houver erro de sintaxe; a mensagem fica em diagnostics
+    public Ast parse() {
+        try {
+            parseClass();
+        } catch (ParseError e) {
+            return null;
+        }
+        return ast;
+    }
+
+    private void parseClass() {
+        expectPeek(CLASS);
+        expectPeek(IDENT);
+        int node = ast.add(NodeKind.CLASS, position(), 0);
+        expectPeek(LBRACE);
+
+        while (CLASS_VARS.contains(tokens.peekType())) {
+            expectPeek(CLASS_VARS);
+            ast.append(node, parseVarNames(tokens.currentType() == FIELD ? Kind.FIELD : Kind.STATIC));
+        }
+
+        while (SUBROUTINES.contains(tokens.peekType())) {
+            ast.append(node, parseSubroutineDec());
+        }
+
+        expectPeek(RBRACE);
+    }
+
+    // tipo seguido de uma lista de nomes separados por virgula e ';'
+    private int parseVarNames(Kind kind) {
+        expectPeek(TYPES);
+        int node = ast.add(NodeKind.VAR_DEC, position(), kind.ordinal());
+        expectPeek(IDENT);
+        ast.append(node, ast.add(NodeKind.NAME, position(), 0));
+        while (peekTokenIs(COMMA)) {
+            expectPeek(COMMA);
+            expectPeek(IDENT);
+            ast.append(node, ast.add(NodeKind.NAME, position(), 0));
+        }
+        expectPeek(SEMICOLON);
+        return node;
+    }
+
+    private int parseSubroutineDec() {
+        expectPeek(SUBROUTINES);
+        var subroutineType = tokens.currentType();
+        expectPeek(RETURN_TYPES);
+        expectPeek(IDENT);
+        int node = ast.add(NodeKind.SUBROUTINE, position(), subroutineType.ordinal());
+
+        expectPeek(LPAREN);
+        if (!peekTokenIs(RPAREN)) {
+            ast.append(node, parseParameter());
+            while (peekTokenIs(COMMA)) {
+                expectPeek(COMMA);
+                ast.append(node, parseParameter());
+            }
+        }
+        expectPeek(RPAREN);
+
+        expectPeek(LBRACE);
+        while (peekTokenIs(VAR)) {
+            expectPeek(VAR);
+            ast.append(node, parseVarNames(Kind.VAR));
+        }
+        ast.append(node, parseStatements());
+        expectPeek(RBRACE);
+        return node;
+    }
+
+    // cada parametro vira um VAR_DEC de um nome so
+    private int parseParameter() {
+        expectPeek(TYPES);
+        int node = ast.add(NodeKind.VAR_DEC, position(), Kind.ARG.ordinal());
+        expectPeek(IDENT);
+        ast.append(node, ast.add(NodeKind.NAME, position(), 0));
+        return node;
+    }
+
+    private int parseStatements() {
+        int node = ast.add(NodeKind.STATEMENTS, position(), 0);
+        while (true) {
+            switch (tokens.peekType()) {
+                case LET:
+                    ast.append(node, parseLet());
+                    break;
+                case IF:
+                    ast.append(node, parseIf());
+                    break;
+                case WHILE:
+                    ast.append(node, parseWhile());
+                    break;
+                case DO:
+                    ast.append(node, parseDo());
+                    break;
+                case RETURN:
+                    ast.append(node, parseReturn());
+                    break;
+                default:
+                    return node;
+            }
+        }
+    }
+
+    private int parseLet() {
+        expectPeek(LET);
+        expectPeek(IDENT);
+        int node = ast.add(NodeKind.LET, position(), 0);
+        if (peekTokenIs(LBRACKET)) {
+            expectPeek(LBRACKET);
+            ast.append(node, parseExpression());
+            expectPeek(RBRACKET);
+            ast.setValue(node, 1);
+        }
+        expectPeek(EQ);
+        ast.append(node, parseExpression());
+        expectPeek(SEMICOLON);
+        return node;
+    }
+
+    private int parseIf() {
+        expectPeek(IF);
+        int node = ast.add(NodeKind.IF, position(), 0);
+        expectPeek(LPAREN);
+        ast.append(node, parseExpression());
+        expectPeek(RPAREN);
+        expectPeek(LBRACE);
+        ast.append(node, parseStatements());
+        expectPeek(RBRACE);
+        if (peekTokenIs(ELSE)) {
+            expectPeek(ELSE);
+            expectPeek(LBRACE);
+            ast.append(node, parseStatements());
+            expectPeek(RBRACE);
+        }
+        return node;
+    }
+
+    private int parseWhile() {
+        expectPeek(WHILE);
+        int node = ast.add(NodeKind.WHILE, position(), 0);
+        expectPeek(LPAREN);
+        ast.append(node, parseExpression());
+        expectPeek(RPAREN);
+        expectPeek(LBRACE);
+        ast.append(node, parseStatements());
+        expectPeek(RBRACE);
+        return node;
+    }
+
+    private int parseDo() {
+        expectPeek(DO);
+        int node = ast.add(NodeKind.DO, position(), 0);
+        expectPeek(IDENT);
+        ast.append(node, parseSubroutineCall());
+        expectPeek(SEMICOLON);
+        return node;
+    }
+
+    private int parseReturn() {
+        expectPeek(RETURN);
+        int node = ast.add(NodeKind.RETURN, position(), 0);
+        if (!peekTokenIs(SEMICOLON))
+            ast.append(node, parseExpression());
+        expectPeek(SEMICOLON);
+        return node;
+    }
+
+    // o identificador ja foi consumido
+    private int parseSubroutineCall() {
+        int base = frames;
+        if (beginCall())
+            return result;
+        return run(base, START_TERM);
+    }
+
+    /*
+     * Expressoes sem recursao, como no Parser: uma pilha de quadros diz o
+     * que falta fazer com o no que acabou de ser montado (result) quando
+     * termina um termo ou uma expressao. O aninhamento fica limitado pelo
+     * heap e nao pela pilha da thread.
+     */
+    private static final int EXPRESSION = 0; // a = esquerda ate aqui, b = BINARY esperando a direita
+    private static final int UNARY = 1;      // a = no UNARY
+    private static final int PAREN = 2;
+    private static final int ARRAY = 3;      // a = no ARRAY
+    private static final int CALL = 4;       // a = no CALL
+
+    // o que fazer a seguir
+    private static final int START_TERM = 0;
+    private static final int TERM_DONE = 1;
+    private static final int EXPRESSION_DONE = 2;
+
+    private int[] frameKind = new int[32];
+    private int[] frameA = new int[32];
+    private int[] frameB = new int[32];
+    private int frames = 0;
+    private int result = Ast.NONE; // o ultimo termo ou expressao terminado
+
+    private void pushFrame(int kind, int a, int b) {
+        if (frames == frameKind.length) {
+            int capacity = frames * 2;
+            frameKind = Arrays.copyOf(frameKind, capacity);
+            frameA = Arrays.copyOf(frameA, capacity);
+            frameB = Arrays.copyOf(frameB, capacity);
+        }
+        frameKind[frames] = kind;
+        frameA[frames] = a;
+        frameB[frames] = b;
+        frames++;
+    }
+
+    // processa os quadros ate a pilha voltar a base; devolve o no montado
+    private int run(int base, int next) {
+        try {
+            while (true) {
+                if (next == START_TERM) {
+                    next = startTerm();
+                } else if (frames == base) {
+                    return result;
+                } else if (next == TERM_DONE) {
+                    next = termDone();
+                } else {
+                    next = expressionDone();
+                }
+            }
+        } finally {
+            frames = base; // depois de um erro os quadros abertos sao descartados
+        }
+    }
+
+    // operadores binarios sem precedencia, associando a esquerda
+    private int parseExpression() {
+        int base = frames;
+        pushFrame(EXPRESSION, Ast.NONE, Ast.NONE);
+        return run(base, START_TERM);
+    }
+
+    // abre um termo; os simples ja terminam aqui, com o no em result
+    private int startTerm() {
+        switch (tokens.peekType()) {
+            case NUMBER:
+                expectPeek(NUMBER);
+                result = ast.add(NodeKind.INT, position(), 0);
+                return TERM_DONE;
+            case STRING:
+                expectPeek(STRING);
+                result = ast.add(NodeKind.STRING, position(), 0);
+                return TERM_DONE;
+            case FALSE:
+            case NULL:
+            case TRUE:
+            case THIS:
+                expectPeek(KEYWORD_CONSTANTS);
+                result = ast.add(NodeKind.KEYWORD, position(), 0);
+                return TERM_DONE;
+            case IDENT:
+                expectPeek(IDENT);
+                if (peekTokenIs(LPAREN) || peekTokenIs(DOT))
+                    return beginCall() ? TERM_DONE : START_TERM;
+                if (peekTokenIs(LBRACKET)) {
+                    int node = ast.add(NodeKind.ARRAY, position(), 0);
+                    expectPeek(LBRACKET);
+                    pushFrame(ARRAY, node, 0);
+                    pushFrame(EXPRESSION, Ast.NONE, Ast.NONE);
+                    return START_TERM;
+                }
+                result = ast.add(NodeKind.VARIABLE, position(), 0);
+                return TERM_DONE;
+            case LPAREN:
+                expectPeek(LPAREN);
+                pushFrame(PAREN, 0, 0);
+                pushFrame(EXPRESSION, Ast.NONE, Ast.NONE);
+                return START_TERM;
+            case MINUS:
+            case NOT:
+                expectPeek(UNARY_OPERATORS);
+                pushFrame(UNARY, ast.add(NodeKind.UNARY, position(), 0), 0);
+                return START_TERM;
+            default:
+                throw error(tokens.peekToken(), "term expected");
+        }
+    }
+
+    // le a chamada ate o '(' e abre a lista de argumentos; true se a lista ja terminou
+    private boolean beginCall() {
+        int node = ast.add(NodeKind.CALL, position(), Ast.NONE);
+        if (peekTokenIs(DOT)) {
+            expectPeek(DOT);
+            expectPeek(IDENT);
+            ast.setValue(node, position());
+        }
+        expectPeek(LPAREN);
+        if (peekTokenIs(RPAREN)) {
+            expectPeek(RPAREN);
+            result = node;
+            return true;
+        }
+        pushFrame(CALL, node, 0);
+        pushFrame(EXPRESSION, Ast.NONE, Ast.NONE);
+        return false;
+    }
+
+    // um termo terminou: o topo e uma expressao ou um operador unario
+    private int termDone() {
+        int top = frames - 1;
+        if (frameKind[top] == UNARY) {
+            frames--;
+            ast.append(frameA[top], result);
+            result = frameA[top];
+            return TERM_DONE;
+        }
+
+        if (frameB[top] != Ast.NONE) {
+            ast.append(frameB[top], result);
+            result = frameB[top];
+        }
+        frameA[top] = result;
+        if (OPERATORS.contains(tokens.peekType())) {
+            expectPeek(OPERATORS);
+            int node = ast.add(NodeKind.BINARY, position(), 0);
+            ast.append(node, frameA[top]);
+            frameB[top] = node;
+            return START_TERM;
+        }
+        frames--;
+        return EXPRESSION_DONE;
+    }
+
+    // uma expressao terminou: dentro de parenteses, de um indice ou de uma chamada
+    private int expressionDone() {
+        int top = frames - 1;
+        switch (frameKind[top]) {
+            case PAREN:
+                frames--;
+                expectPeek(RPAREN);
+                return TERM_DONE;
+            case ARRAY:
+                frames--;
+                ast.append(frameA[top], result);
+                expectPeek(RBRACKET);
+                result = frameA[top];
+                return TERM_DONE;
+            default: // CALL
+                ast.append(frameA[top], result);
+                if (peekTokenIs(COMMA)) {
+                    expectPeek(COMMA);
+                    pushFrame(EXPRESSION, Ast.NONE, Ast.NONE);
+                    return START_TERM;
+                }
+                frames--;
+                expectPeek(RPAREN);
+                result = frameA[top];
+                return TERM_DONE;
+        }
+    }
+
+    private int position() {
+        return tokens.position();
+    }
+
+    private boolean peekTokenIs(TokenType type) {
+        return tokens.peekType() == type;
+    }
+
+    private void expectPeek(TokenType type) {
+        if (tokens.peekType() == type) {
+            tokens.advance();
+        } else {
+            throw error(tokens.peekToken(), "Expected one of: [" + type + "]");
+        }
+    }
+
+    private void expectPeek(EnumSet<TokenType> types) {
+        if (types.contains(tokens.peekType())) {
+            tokens.advance();
+        } else {
+            throw error(tokens.peekToken(), "Expected one of: " + types);
+        }
+    }
+
+    private ParseError error(Token token, String message) {
+        String where = token.type == EOF ? " at end" : " at '" + token.lexeme() + "'";
+        diagnostics.report(fileName, token.line(), token.column(), "Error" + where + ": " + message);
+        return new ParseError();
+    }
+
+}
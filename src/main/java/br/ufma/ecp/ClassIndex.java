@@ -0,0 +1,192 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.token.TokenType.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+
+import br.ufma.ecp.token.Source;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Indice do programa inteiro: para cada classe, as subrotinas com tipo
+ * (constructor/function/method), tipo de retorno e numero de parametros.
+ * E montado por uma pre-varredura que le so o cabecalho da classe e a
+ * assinatura de cada subrotina, pulando os corpos pela contagem de chaves,
+ * um arquivo por tarefa no ForkJoinPool. As classes do SO do Jack ja vem
+ * em builtins(). Com ele o Parser confere as chamadas entre classes; na
+ * compilacao de uma pasta as classes do programa vem do ClassRegistry, e
+ * aqui ficam so as do SO.
+ */
+public class ClassIndex {
+
+    public record Signature(TokenType kind, String returnType, int parameters) {
+    }
+
+    private static final EnumSet<TokenType> SUBROUTINES = EnumSet.of(CONSTRUCTOR, FUNCTION, METHOD);
+    private static final EnumSet<TokenType> RETURN_TYPES = EnumSet.of(VOID, INT, CHAR, BOOLEAN, IDENT);
+
+    // as assinaturas da biblioteca padrao do Jack, lidas pela mesma varredura
+    private static final String OS = """
+        class Math {
+            function void init() {} function int abs(int x) {}
+            function int multiply(int x, int y) {} function int divide(int x, int y) {}
+            function int min(int x, int y) {} function int max(int x, int y) {} function int sqrt(int x) {}
+        }
+        class String {
+            constructor String new(int maxLength) {} method void dispose() {} method int length() {}
+            method char charAt(int j) {} method void setCharAt(int j, char c) {}
+            method String appendChar(char c) {} method void eraseLastChar() {}
+            method int intValue() {} method void setInt(int val) {}
+            function char backSpace() {} function char doubleQuote() {} function char newLine() {}
+        }
+        class Array {
+            function Array new(int size) {} method void dispose() {}
+        }
+        class Output {
+            function void init() {} function void moveCursor(int i, int j) {}
+            function void printChar(char c) {} function void printString(String s) {}
+            function void printInt(int i) {} function void println() {} function void backSpace() {}
+        }
+        class Screen {
+            function void init() {} function void clearScreen() {} function void setColor(boolean b) {}
+            function void drawPixel(int x, int y) {} function void drawLine(int x1, int y1, int x2, int y2) {}
+            function void drawRectangle(int x1, int y1, int x2, int y2) {}
+            function void drawCircle(int x, int y, int r) {}
+        }
+        class Keyboard {
+            function void init() {} function char keyPressed() {} function char readChar() {}
+            function String readLine(String message) {} function int readInt(String message) {}
+        }
+        class Memory {
+            function void init() {} function int peek(int address) {} function void poke(int address, int value) {}
+            function Array alloc(int size) {} function void deAlloc(Array o) {}
+        }
+        class Sys {
+            function void init() {} function void halt() {} function void error(int errorCode) {}
+            function void wait(int duration) {}
+        }
+        """;
+
+    private final Set<String> classes = ConcurrentHashMap.newKeySet();
+    // por nome qualificado ("Classe.subrotina"), o mesmo String que o Parser monta
+    private final ConcurrentHashMap<String, Signature> signatures = new ConcurrentHashMap<>();
+
+    public ClassIndex() {
+    }
+
+    // so as classes do SO
+    public static ClassIndex builtins() {
+        var index = new ClassIndex();
+        index.add(new Source(OS.getBytes(StandardCharsets.UTF_8)));
+        return index;
+    }
+
+    // as classes do SO e as de sources, uma tarefa por arquivo
+    public static ClassIndex build(List<Source> sources, ForkJoinPool pool) {
+        var index = builtins();
+        var tasks = new ArrayList<ForkJoinTask<?>>(sources.size());
+        for (Source source : sources)
+            tasks.add(pool.submit(() -> index.add(source)));
+        for (var task : tasks)
+            task.join();
+        return index;
+    }
+
+    public boolean hasClass(String name) {
+        return classes.contains(name);
+    }
+
+    public Signature lookup(String qualifiedName) {
+        return signatures.get(qualifiedName);
+    }
+
+    public Signature lookup(String className, String subroutine) {
+        return signatures.get(className + "." + subroutine);
+    }
+
+    // cada assinatura pelo nome qualificado
+    public void forEach(BiConsumer<String, Signature> action) {
+        signatures.forEach(action);
+    }
+
+    void put(String className, String subroutine, Signature signature) {
+        classes.add(className);
+        signatures.put(className + "." + subroutine, signature);
+    }
+
+    // junta as classes de outro indice (por exemplo lido de um .jacki)
+    void addAll(ClassIndex other) {
+        classes.addAll(other.classes);
+        signatures.putAll(other.signatures);
+    }
+
+    /*
+     * Le as assinaturas de um arquivo. Os erros lexicos sao descartados (a
+     * compilacao de verdade vai registra-los); num fonte quebrado fica no
+     * indice o que der para reconhecer.
+     */
+    public void add(Source source) {
+        var scanner = new Scanner(source, new Diagnostics());
+        var interner = source.interner();
+        int classId = -1;
+        int level = 0;
+
+        TokenType type = scanner.scan();
+        while (type != EOF) {
+            if (type == CLASS && level == 0) {
+                type = scanner.scan();
+                if (type == IDENT) {
+                    classId = scanner.tokenId();
+                    classes.add(interner.name(classId));
+                }
+                continue;
+            }
+
+            if (level == 1 && classId >= 0 && SUBROUTINES.contains(type)) {
+                var kind = type;
+                type = scanner.scan();
+                if (!RETURN_TYPES.contains(type))
+                    continue;
+                String returnType = type == IDENT ? interner.name(scanner.tokenId()) : type.value;
+                type = scanner.scan();
+                if (type != IDENT)
+                    continue;
+                int nameId = scanner.tokenId();
+                type = scanner.scan();
+                if (type != LPAREN)
+                    continue;
+
+                // parametros: virgulas ate o ')'
+                int parameters = 0;
+                type = scanner.scan();
+                if (type != RPAREN) {
+                    parameters = 1;
+                    while (type != RPAREN && type != LBRACE && type != EOF) {
+                        if (type == COMMA)
+                            parameters++;
+                        type = scanner.scan();
+                    }
+                }
+                signatures.put(interner.qualified(classId, nameId), new Signature(kind, returnType, parameters));
+                if (type == RPAREN)
+                    type = scanner.scan();
+                continue;
+            }
+
+            if (type == LBRACE)
+                level++;
+            else if (type == RBRACE)
+                level--;
+            type = scanner.scan();
+        }
+    }
+
+}
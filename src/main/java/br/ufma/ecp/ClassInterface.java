@@ -0,0 +1,123 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+import br.ufma.ecp.ClassRegistry.ClassFacts;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Arquivo de interface de uma classe (.jacki), gravado ao lado do .vm com o
+ * que as outras classes precisam saber dela: nome, numero de fields e
+ * statics e as assinaturas das subrotinas, mais o hash do fonte de onde
+ * saiu. Quem compila outra classe carrega o .jacki, mapeado em memoria, em
+ * vez de ler o fonte da dependencia; se o fonte mudou o hash nao bate e o
+ * .jacki e ignorado.
+ *
+ * Formato (big-endian):
+ *   "JACI", u16 versao, u64 hash do fonte (CRC32C),
+ *   nome da classe, i32 fields, i32 statics, i32 n,
+ *   n x (u8 ordinal do kind, nome, tipo de retorno, i32 parametros)
+ * cada nome e u16 tamanho + bytes UTF-8.
+ */
+public class ClassInterface {
+
+    private static final int MAGIC = 0x4A414349; // "JACI"
+    private static final short VERSION = 1;
+
+    private static final TokenType[] typeValues = TokenType.values();
+
+    public static long hash(ByteBuffer source) {
+        var crc = new CRC32C();
+        crc.update(source.duplicate().clear());
+        return crc.getValue();
+    }
+
+    public static void write(Path path, ClassFacts facts, long hash) throws IOException {
+        // em ordem de nome, para o arquivo so mudar quando a interface muda
+        var subroutines = new TreeMap<String, ClassIndex.Signature>();
+        String prefix = facts.name() + ".";
+        facts.signatures().forEach((qualified, signature) -> {
+            if (qualified.startsWith(prefix))
+                subroutines.put(qualified.substring(prefix.length()), signature);
+        });
+
+        var buffer = ByteBuffer.allocate(64 + 64 * subroutines.size() + facts.name().length() * 3);
+        buffer.putInt(MAGIC).putShort(VERSION).putLong(hash);
+        putString(buffer, facts.name());
+        buffer.putInt(facts.fields()).putInt(facts.statics()).putInt(subroutines.size());
+        for (var entry : subroutines.entrySet()) {
+            var signature = entry.getValue();
+            while (buffer.remaining() < 16 + 3 * (entry.getKey().length() + signature.returnType().length()))
+                buffer = grow(buffer);
+            buffer.put((byte) signature.kind().ordinal());
+            putString(buffer, entry.getKey());
+            putString(buffer, signature.returnType());
+            buffer.putInt(signature.parameters());
+        }
+        Files.write(path, Arrays.copyOf(buffer.array(), buffer.position()));
+    }
+
+    // le a interface se ela existe, e desta versao e o hash confere; senao null
+    public static ClassFacts read(Path path, long expectedHash) {
+        return read(path, expectedHash, true);
+    }
+
+    // sem conferir o hash, para quando nao ha o fonte (so .vm e .jacki)
+    public static ClassFacts read(Path path) {
+        return read(path, 0, false);
+    }
+
+    private static ClassFacts read(Path path, long expectedHash, boolean checkHash) {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION)
+                return null;
+            long hash = buffer.getLong();
+            if (checkHash && hash != expectedHash)
+                return null;
+
+            String name = getString(buffer);
+            int fields = buffer.getInt();
+            int statics = buffer.getInt();
+            int n = buffer.getInt();
+            var signatures = new ClassIndex();
+            for (int i = 0; i < n; i++) {
+                var kind = typeValues[buffer.get()];
+                String subroutine = getString(buffer);
+                String returnType = getString(buffer);
+                signatures.put(name, subroutine, new ClassIndex.Signature(kind, returnType, buffer.getInt()));
+            }
+            return new ClassFacts(name, fields, statics, signatures);
+        } catch (IOException | RuntimeException e) {
+            // arquivo ausente, truncado ou corrompido: como se nao houvesse interface
+            return null;
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        var s = StandardCharsets.UTF_8.decode(buffer.slice(buffer.position(), length)).toString();
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        var bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+        return bigger.put(buffer.flip());
+    }
+
+}
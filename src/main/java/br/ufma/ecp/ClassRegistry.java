@@ -0,0 +1,60 @@
+package br.ufma.ecp;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Registro das classes de um programa compilado em paralelo, um arquivo por
+ * tarefa. Cada Parser publica os fatos da sua classe (numero de fields e
+ * statics, assinaturas das subrotinas) logo depois das variaveis de classe,
+ * antes de analisar qualquer corpo; quem precisa de outra classe espera a
+ * publicacao dela. Como a publicacao nunca espera por ninguem, referencias
+ * ciclicas entre classes nao travam.
+ *
+ * As classes esperadas vem do nome dos arquivos (Main.jack -> Main) e sao
+ * fixas desde o inicio: uma consulta devolve sempre o mesmo resultado,
+ * qualquer que seja a ordem em que as tarefas rodam.
+ */
+public class ClassRegistry {
+
+    public record ClassFacts(String name, int fields, int statics, ClassIndex signatures) {
+    }
+
+    private final ConcurrentHashMap<String, CompletableFuture<ClassFacts>> classes = new ConcurrentHashMap<>();
+
+    public ClassRegistry(Collection<String> fileNames) {
+        for (String fileName : fileNames)
+            classes.put(className(fileName), new CompletableFuture<>());
+    }
+
+    public boolean expects(String className) {
+        return classes.containsKey(className);
+    }
+
+    /*
+     * Publica o que o parser de fileName sabe da classe. facts e null se o
+     * cabecalho nao foi entendido; uma classe com nome diferente do arquivo
+     * tambem conta como nao entendida. So a primeira publicacao vale, entao
+     * quem compila o arquivo pode sempre publicar null no fim por garantia.
+     */
+    public void publish(String fileName, ClassFacts facts) {
+        String name = className(fileName);
+        var future = classes.get(name);
+        if (future != null)
+            future.complete(facts != null && facts.name().equals(name) ? facts : null);
+    }
+
+    // espera a classe ser publicada; null se ela nao e do programa ou nao foi entendida
+    public ClassFacts facts(String className) {
+        var future = classes.get(className);
+        return future == null ? null : future.join();
+    }
+
+    static String className(String fileName) {
+        int slash = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+        int dot = fileName.lastIndexOf('.');
+        return fileName.substring(slash + 1, dot > slash ? dot : fileName.length());
+    }
+
+}
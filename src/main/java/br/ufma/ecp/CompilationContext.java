@@ -0,0 +1,72 @@
+package br.ufma.ecp;
+
+import br.ufma.ecp.token.Source;
+
+/*
+ * O que a compilacao de um arquivo usa (Scanner, TokenArray e o Parser com
+ * sua SymbolTable e seu VMWriter), para ser reaproveitado de um arquivo
+ * para o outro: reset troca a entrada e esvazia as tabelas, mas os vetores
+ * e buffers que ja cresceram ficam. Nada aqui pode ser usado por duas
+ * threads ao mesmo tempo, entao cada thread tem o seu (forThread). Quem
+ * termina de usar chama release, para o contexto da thread nao segurar a
+ * entrada (talvez um arquivo mapeado) e o Interner da compilacao.
+ */
+public class CompilationContext {
+
+    private static final ThreadLocal<CompilationContext> contexts = ThreadLocal.withInitial(CompilationContext::new);
+
+    private final Diagnostics diagnostics = new Diagnostics();
+    private final Scanner scanner;
+    private final TokenArray tokens;
+    private final Parser parser;
+    private final Source empty = new Source(new byte[0]);
+
+    public CompilationContext() {
+        scanner = new Scanner(empty, diagnostics);
+        tokens = new TokenArray(empty, 1024);
+        tokens.scan(scanner, 0, 1);
+        parser = new Parser(tokens, diagnostics);
+    }
+
+    public static CompilationContext forThread() {
+        return contexts.get();
+    }
+
+    // prepara o parser para compilar source; os erros da compilacao anterior sao descartados.
+    // Os identificadores vao para source.interner(), a tabela da compilacao de quem chamou
+    public Parser reset(Source source) {
+        return reset(source, true);
+    }
+
+    // o mesmo, mas com parallel false os tokens sao sempre separados nesta thread
+    // (quem chama ja e uma tarefa do pool e nao deve esperar por subtarefas nele)
+    public Parser reset(Source source, boolean parallel) {
+        diagnostics.clear();
+        if (parallel && source.length() >= 2 * ParallelTokenizer.MIN_CHUNK) {
+            // arquivo grande: os tokens sao separados em paralelo num TokenArray novo
+            parser.reset(ParallelTokenizer.tokenize(source, diagnostics));
+        } else {
+            scanner.reset(source);
+            tokens.reset(source);
+            tokens.scan(scanner, 0, 1);
+            parser.reset(tokens);
+        }
+        return parser;
+    }
+
+    // volta para a entrada vazia: source, interner, saida, indice e registry do
+    // ultimo arquivo sao soltos; os vetores e buffers que ja cresceram ficam
+    public void release() {
+        reset(empty, false);
+        diagnostics.clear();
+    }
+
+    public Parser parser() {
+        return parser;
+    }
+
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
+
+}
@@ -0,0 +1,10 @@
+package br.ufma.ecp;
+
+// um erro encontrado na compilacao, com a posicao no arquivo
+public record Diagnostic(String file, int line, int column, String message) {
+
+    public String toString() {
+        return file + ":" + line + ":" + column + ": " + message;
+    }
+
+}
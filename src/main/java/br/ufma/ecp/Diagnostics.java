@@ -0,0 +1,53 @@
+package br.ufma.ecp;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import br.ufma.ecp.token.Source;
+
+/*
+ * Junta os erros de uma compilacao em vez de abortar no primeiro.
+ * Pode ser compartilhado por varios arquivos compilados em paralelo.
+ */
+public class Diagnostics {
+
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+
+    public synchronized void report(String file, int line, int column, String message) {
+        diagnostics.add(new Diagnostic(file, line, column, message));
+    }
+
+    public void report(Source source, int offset, String message) {
+        report(source.name(), source.line(offset), source.column(offset), message);
+    }
+
+    public void addAll(Diagnostics other) {
+        var list = other.all();
+        synchronized (this) {
+            diagnostics.addAll(list);
+        }
+    }
+
+    public synchronized void clear() {
+        diagnostics.clear();
+    }
+
+    public synchronized boolean hasErrors() {
+        return !diagnostics.isEmpty();
+    }
+
+    public synchronized int count() {
+        return diagnostics.size();
+    }
+
+    // todos os erros, ordenados por arquivo e posicao
+    public synchronized List<Diagnostic> all() {
+        var sorted = new ArrayList<>(diagnostics);
+        sorted.sort(Comparator.comparing(Diagnostic::file)
+                .thenComparingInt(Diagnostic::line)
+                .thenComparingInt(Diagnostic::column));
+        return sorted;
+    }
+
+}
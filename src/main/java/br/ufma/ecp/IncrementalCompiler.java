@@ -0,0 +1,197 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.token.TokenType.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+
+import br.ufma.ecp.token.Source;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Compilacao incremental para o editor. Guarda, da ultima compilacao,
+ * onde comeca cada subrotina e o VM e os erros de cada uma. Depois de uma
+ * edicao os tokens sao refeitos pelo IncrementalLexer e, se a edicao cai
+ * dentro de uma subrotina sem mexer nos limites dela, so essa subrotina e
+ * analisada e gerada de novo; as outras so tem o indice deslocado.
+ * Mudancas no cabecalho da classe, nos limites das subrotinas ou com erro
+ * lexico fazem a compilacao inteira.
+ *
+ * Os limites vem da contagem de chaves; se o cabecalho tem erro ou a
+ * recuperacao de erros de uma subrotina passa do limite dela, a classe e
+ * analisada em sequencia, como no Parser.parse(), e fica inteira em
+ * outputs.get(0) e classDiagnostics ate a proxima compilacao inteira.
+ *
+ * Os identificadores ficam num Interner do proprio compilador, refeito a
+ * cada compilacao inteira. Como cada edicao interna os nomes parciais que
+ * foram digitados (x, xy, xyz...), quando a tabela passa do dobro do que a
+ * ultima compilacao inteira precisou a classe e compilada de novo do zero.
+ */
+public class IncrementalCompiler {
+
+    private static final EnumSet<TokenType> SUBROUTINES = EnumSet.of(CONSTRUCTOR, FUNCTION, METHOD);
+
+    private TokenArray tokens;
+    private Parser classParser;
+    private Diagnostics classDiagnostics; // erros lexicos e do cabecalho, ou todos se em sequencia
+    private Diagnostics endDiagnostics; // a '}' final
+    private final ArrayList<Integer> starts = new ArrayList<>();
+    private int end;
+    private int internedAtFullCompile;
+    private final ArrayList<String> outputs = new ArrayList<>();
+    private final ArrayList<Diagnostics> subroutineDiagnostics = new ArrayList<>();
+
+    public IncrementalCompiler(byte[] input) {
+        this(new Source(ByteBuffer.wrap(input)));
+    }
+
+    public IncrementalCompiler(Source source) {
+        compileAll(source);
+    }
+
+    /*
+     * Troca removedLength bytes a partir de offset por inserted.
+     * Devolve true se bastou refazer uma subrotina, false se a classe
+     * inteira foi compilada de novo.
+     */
+    public boolean edit(int offset, int removedLength, byte[] inserted) {
+        var lexical = new Diagnostics();
+        var delta = IncrementalLexer.relex(tokens, offset, removedLength, inserted, lexical);
+        var edited = delta.apply(tokens);
+        int shift = delta.inserted().size() - delta.removed();
+
+        int i = subroutineAt(delta.from(), delta.from() + delta.removed());
+        if (lexical.hasErrors() || classDiagnostics.hasErrors() || i < 0
+                || !boundariesKept(edited, starts.get(i), stop(i) + shift)
+                || edited.source().interner().size() > 2 * internedAtFullCompile + 256) {
+            compileAll(edited.source());
+            return false;
+        }
+
+        tokens = edited;
+        for (int j = i + 1; j < starts.size(); j++)
+            starts.set(j, starts.get(j) + shift);
+        end += shift;
+
+        boolean agrees = compileSubroutine(i);
+        // as que tinham erro sao refeitas para as linhas das mensagens acompanharem o texto
+        for (int j = 0; j < starts.size(); j++) {
+            if (j != i && subroutineDiagnostics.get(j).hasErrors())
+                agrees &= compileSubroutine(j);
+        }
+        if (!agrees) {
+            compileAll(tokens.source());
+            return false;
+        }
+        checkEnd();
+        return true;
+    }
+
+    public String VMOutput() {
+        return String.join("", outputs);
+    }
+
+    public Diagnostics diagnostics() {
+        var all = new Diagnostics();
+        all.addAll(classDiagnostics);
+        for (var d : subroutineDiagnostics)
+            all.addAll(d);
+        all.addAll(endDiagnostics);
+        return all;
+    }
+
+    public TokenArray tokens() {
+        return tokens;
+    }
+
+    private void compileAll(Source source) {
+        // tabela nova: os ids da compilacao anterior nao sao mais usados
+        source = new Source(source.buffer(), source.name());
+        var lexical = new Diagnostics();
+        tokens = TokenArray.tokenize(source, lexical);
+        classDiagnostics = new Diagnostics();
+        classDiagnostics.addAll(lexical);
+        classParser = new Parser(tokens, classDiagnostics);
+
+        starts.clear();
+        outputs.clear();
+        subroutineDiagnostics.clear();
+        end = classParser.parseHeader(starts);
+        boolean agrees = !classDiagnostics.hasErrors();
+        for (int i = 0; agrees && i < starts.size(); i++) {
+            outputs.add(null);
+            subroutineDiagnostics.add(null);
+            agrees = compileSubroutine(i);
+        }
+        if (agrees) {
+            checkEnd();
+        } else {
+            compileSequential(lexical);
+        }
+        internedAtFullCompile = source.interner().size();
+    }
+
+    // a classe toda pelo Parser.parse(); sem starts, nenhuma edicao cai numa
+    // subrotina e a proxima tambem faz a compilacao inteira
+    private void compileSequential(Diagnostics lexical) {
+        classDiagnostics = new Diagnostics();
+        classDiagnostics.addAll(lexical);
+        var parser = new Parser(tokens, classDiagnostics);
+        parser.parse();
+
+        starts.clear();
+        outputs.clear();
+        subroutineDiagnostics.clear();
+        outputs.add(parser.VMOutput());
+        end = 0;
+        endDiagnostics = new Diagnostics();
+    }
+
+    private int stop(int i) {
+        return i + 1 < starts.size() ? starts.get(i + 1) : end;
+    }
+
+    // false se a subrotina nao terminou no limite dela, como terminaria no Parser.parse()
+    private boolean compileSubroutine(int i) {
+        var diagnostics = new Diagnostics();
+        var parser = classParser.subroutineParser(tokens, starts.get(i), diagnostics);
+        outputs.set(i, parser.parseSubroutines(stop(i)).vmOutput());
+        subroutineDiagnostics.set(i, diagnostics);
+        return parser.endedAt(stop(i));
+    }
+
+    private void checkEnd() {
+        endDiagnostics = new Diagnostics();
+        classParser.subroutineParser(tokens, end, endDiagnostics).parseClassEnd();
+    }
+
+    // subrotina que contem os tokens antigos [from, to) sem incluir a palavra-chave; -1 se nenhuma
+    private int subroutineAt(int from, int to) {
+        for (int i = 0; i < starts.size(); i++) {
+            if (from > starts.get(i) && to <= stop(i))
+                return i;
+        }
+        return -1;
+    }
+
+    // os tokens [start, stop) ainda formam uma so subrotina: nenhuma outra
+    // comeca no meio e as chaves voltam ao nivel da classe so no fim
+    private static boolean boundariesKept(TokenArray tokens, int start, int stop) {
+        int level = 1;
+        for (int k = start; k < stop; k++) {
+            var type = tokens.type(k);
+            if (type == EOF || (k > start && level == 1 && SUBROUTINES.contains(type)))
+                return false;
+            if (type == LBRACE) {
+                level++;
+            } else if (type == RBRACE) {
+                level--;
+                if (level == 0)
+                    return false;
+            }
+        }
+        return level == 1;
+    }
+
+}
@@ -0,0 +1,126 @@
+package br.ufma.ecp;
+
+import java.nio.ByteBuffer;
+
+import br.ufma.ecp.token.ByteSearch;
+import br.ufma.ecp.token.Source;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Reanalise lexica depois de uma edicao no fonte (para o editor).
+ * Em vez de passar o Scanner no arquivo todo, recomeca logo depois do
+ * ultimo token que termina antes da edicao (ali o Scanner esta fora de
+ * string e comentario) e para assim que um token novo coincide com um
+ * token antigo deslocado: dali em diante os bytes sao os mesmos, entao
+ * os tokens tambem sao.
+ */
+public class IncrementalLexer {
+
+    // resultado: os tokens antigos [from, from + removed) viram inserted
+    public record TokenDelta(int from, int removed, TokenArray inserted, int offsetDelta, int lineDelta) {
+
+        // monta o TokenArray completo do fonte editado
+        public TokenArray apply(TokenArray old) {
+            int tail = old.size() - from - removed;
+            var tokens = new TokenArray(inserted.source(), from + inserted.size() + tail);
+            for (int i = 0; i < from; i++)
+                tokens.add(old.type(i), old.offset(i), old.length(i), old.line(i), old.id(i));
+            for (int i = 0; i < inserted.size(); i++)
+                tokens.add(inserted.type(i), inserted.offset(i), inserted.length(i), inserted.line(i), inserted.id(i));
+            for (int i = from + removed; i < old.size(); i++)
+                tokens.add(old.type(i), old.offset(i) + offsetDelta, old.length(i), old.line(i) + lineDelta, old.id(i));
+            return tokens;
+        }
+    }
+
+    public static TokenDelta relex(TokenArray old, int offset, int removedLength, byte[] insertedBytes) {
+        return relex(old, offset, removedLength, insertedBytes, new Diagnostics());
+    }
+
+    // erros lexicos no trecho reanalisado vao para diagnostics
+    public static TokenDelta relex(TokenArray old, int offset, int removedLength, byte[] insertedBytes,
+            Diagnostics diagnostics) {
+        var source = edit(old.source(), offset, removedLength, insertedBytes);
+        int offsetDelta = insertedBytes.length - removedLength;
+        int lineDelta = newlines(insertedBytes) - newlines(old.source(), offset, offset + removedLength);
+        int editEnd = offset + insertedBytes.length;
+
+        // ultimo token que termina (com o byte seguinte, usado como lookahead) antes da edicao
+        int keep = -1;
+        int low = 0, high = old.size() - 2;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (end(old, mid) < offset) {
+                keep = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        int restart = keep < 0 ? 0 : end(old, keep);
+        int line = keep < 0 ? 1 : old.line(keep);
+        int counted = keep < 0 ? 0 : old.offset(keep);
+
+        var scanner = new Scanner(source, restart, -1, diagnostics);
+        var inserted = new TokenArray(source, 16);
+        int next = keep + 1; // candidato a ressincronizar entre os tokens antigos
+
+        while (true) {
+            TokenType type = scanner.scan();
+            int start = scanner.tokenOffset();
+            line += ByteSearch.countNewlines(source.buffer(), counted, start);
+            counted = start;
+
+            if (start >= editEnd) {
+                int oldStart = start - offsetDelta;
+                while (next < old.size() && old.offset(next) < oldStart)
+                    next++;
+                if (next < old.size() && old.offset(next) == oldStart && old.type(next) == type
+                        && old.length(next) == scanner.tokenLength()) {
+                    return new TokenDelta(keep + 1, next - keep - 1, inserted, offsetDelta, lineDelta);
+                }
+            }
+
+            inserted.add(type, start, scanner.tokenLength(), line, type == TokenType.IDENT ? scanner.tokenId() : -1);
+            if (type == TokenType.EOF)
+                return new TokenDelta(keep + 1, old.size() - keep - 1, inserted, offsetDelta, lineDelta);
+        }
+    }
+
+    // primeiro byte depois do token i (inclui a aspa final das strings)
+    private static int end(TokenArray tokens, int i) {
+        int end = tokens.offset(i) + tokens.length(i);
+        if (tokens.type(i) == TokenType.STRING)
+            end++;
+        return end;
+    }
+
+    private static Source edit(Source old, int offset, int removedLength, byte[] insertedBytes) {
+        var buffer = ByteBuffer.allocate(old.length() - removedLength + insertedBytes.length);
+        buffer.put(old.buffer().slice(0, offset));
+        buffer.put(insertedBytes);
+        buffer.put(old.buffer().slice(offset + removedLength, old.length() - offset - removedLength));
+        buffer.flip();
+        return new Source(buffer, old.name(), old.interner());
+    }
+
+    private static int newlines(byte[] bytes) {
+        int n = 0;
+        for (byte b : bytes) {
+            if (b == '\n')
+                n++;
+        }
+        return n;
+    }
+
+    private static int newlines(Source source, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (source.byteAt(i) == '\n')
+                n++;
+        }
+        return n;
+    }
+
+}
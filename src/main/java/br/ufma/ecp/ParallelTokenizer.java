@@ -0,0 +1,128 @@
+package br.ufma.ecp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import br.ufma.ecp.token.Source;
+
+/*
+ * Separa os tokens de um arquivo grande em paralelo.
+ * Uma pre-varredura rapida acompanha apenas se estamos dentro de string
+ * ou comentario e escolhe pontos de corte seguros (uma quebra de linha
+ * fora de string/comentario). Cada pedaco e analisado por um Scanner
+ * proprio no ForkJoinPool e os resultados sao concatenados em ordem,
+ * com as linhas ja corrigidas pelo numero de linhas antes de cada pedaco.
+ * O resultado e igual ao de TokenArray.tokenize.
+ */
+public class ParallelTokenizer {
+
+    // abaixo disso nao compensa dividir
+    public static final int MIN_CHUNK = 256 * 1024;
+
+    private static final int NORMAL = 0;
+    private static final int STRING = 1;
+    private static final int LINE_COMMENT = 2;
+    private static final int BLOCK_COMMENT = 3;
+
+    record Chunk(int from, int to, int line) {
+    }
+
+    public static TokenArray tokenize(ByteBuffer input) {
+        return tokenize(new Source(input), new Diagnostics());
+    }
+
+    public static TokenArray tokenize(Source source, Diagnostics diagnostics) {
+        int chunks = Math.min(ForkJoinPool.getCommonPoolParallelism(), source.length() / MIN_CHUNK);
+        return tokenize(source, Math.max(1, chunks), ForkJoinPool.commonPool(), diagnostics);
+    }
+
+    public static TokenArray tokenize(ByteBuffer input, int chunks, ForkJoinPool pool) {
+        return tokenize(new Source(input), chunks, pool, new Diagnostics());
+    }
+
+    public static TokenArray tokenize(Source source, int chunks, ForkJoinPool pool, Diagnostics diagnostics) {
+        var parts = split(source, chunks);
+
+        var tasks = new ArrayList<ForkJoinTask<TokenArray>>(parts.size());
+        for (Chunk chunk : parts) {
+            tasks.add(pool.submit(() -> scan(source, chunk, diagnostics)));
+        }
+
+        var arrays = new TokenArray[tasks.size()];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = tasks.get(i).join();
+        }
+        return TokenArray.concat(source, arrays);
+    }
+
+    private static TokenArray scan(Source source, Chunk chunk, Diagnostics diagnostics) {
+        var tokens = new TokenArray(source, Math.max(16, (chunk.to() - chunk.from()) / 6));
+        tokens.scan(new Scanner(source, chunk.from(), chunk.to(), diagnostics), chunk.from(), chunk.line());
+        return tokens;
+    }
+
+    // pre-varredura: estado de string/comentario e contagem de linhas
+    static List<Chunk> split(Source source, int chunks) {
+        var result = new ArrayList<Chunk>(chunks);
+        int length = source.length();
+        int target = length / chunks;
+        int from = 0;
+        int fromLine = 1;
+        int line = 1;
+        int state = NORMAL;
+
+        int i = 0;
+        for (; i < length; i++) {
+            byte b = source.byteAt(i);
+            if (b == 0) // o Scanner trata o byte 0 como fim da entrada
+                break;
+
+            switch (state) {
+                case NORMAL:
+                    if (b == '"') {
+                        state = STRING;
+                    } else if (b == '/' && i + 1 < length) {
+                        byte next = source.byteAt(i + 1);
+                        if (next == '/') {
+                            state = LINE_COMMENT;
+                            i++;
+                        } else if (next == '*') {
+                            state = BLOCK_COMMENT;
+                            i++;
+                        }
+                    }
+                    break;
+                case STRING:
+                    if (b == '"')
+                        state = NORMAL;
+                    break;
+                case LINE_COMMENT:
+                    if (b == '\n')
+                        state = NORMAL;
+                    break;
+                case BLOCK_COMMENT:
+                    if (b == '*' && i + 1 < length && source.byteAt(i + 1) == '/') {
+                        state = NORMAL;
+                        i++;
+                    }
+                    break;
+            }
+
+            if (b == '\n') {
+                line++;
+                if (state == NORMAL && i + 1 - from >= target && result.size() < chunks - 1) {
+                    result.add(new Chunk(from, i + 1, fromLine));
+                    from = i + 1;
+                    fromLine = line;
+                }
+            }
+        }
+
+        result.add(new Chunk(from, i, fromLine));
+        return result;
+    }
+
+}
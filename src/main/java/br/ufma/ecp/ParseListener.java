@@ -0,0 +1,24 @@
+package br.ufma.ecp;
+
+import br.ufma.ecp.token.Token;
+
+/*
+ * Eventos do Parser: inicio e fim de cada regra e cada token consumido.
+ * O padrao (NONE) nao faz nada, entao compilar so para VM nao monta a
+ * arvore sintatica. XmlParseListener gera o XML da analise.
+ */
+public interface ParseListener {
+
+    ParseListener NONE = new ParseListener() {
+    };
+
+    default void startNonTerminal(String name) {
+    }
+
+    default void endNonTerminal(String name) {
+    }
+
+    default void terminal(Token token) {
+    }
+
+}
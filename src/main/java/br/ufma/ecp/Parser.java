@@ -8,10 +8,20 @@ import br.ufma.ecp.VMWriter.Command;
 import br.ufma.ecp.VMWriter.Segment;
 
 
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 //import javax.swing.text.Segment;
 
+import br.ufma.ecp.token.Interner;
+import br.ufma.ecp.token.Source;
 import br.ufma.ecp.token.Token;
 import br.ufma.ecp.token.TokenType;
 
@@ -19,199 +29,653 @@ public class Parser {
     private static class ParseError extends RuntimeException {
     }
 
-    private Scanner scan;
-    private Token currentToken;
-    private Token peekToken;
+    // conjuntos fixos de tokens, para nao criar arrays a cada expectPeek
+    private static final EnumSet<TokenType> TYPES = EnumSet.of(INT, CHAR, BOOLEAN, IDENT);
+    private static final EnumSet<TokenType> RETURN_TYPES = EnumSet.of(VOID, INT, CHAR, BOOLEAN, IDENT);
+    private static final EnumSet<TokenType> SUBROUTINES = EnumSet.of(CONSTRUCTOR, FUNCTION, METHOD);
+    private static final EnumSet<TokenType> CLASS_VARS = EnumSet.of(FIELD, STATIC);
+    private static final EnumSet<TokenType> KEYWORD_CONSTANTS = EnumSet.of(FALSE, NULL, TRUE);
+    private static final EnumSet<TokenType> UNARY_OPERATORS = EnumSet.of(MINUS, NOT);
+    private static final EnumSet<TokenType> OPERATORS = EnumSet.of(PLUS, MINUS, ASTERISK, SLASH, AND, OR, LT, GT, EQ);
+    private static final EnumSet<TokenType> STATEMENTS = EnumSet.of(LET, IF, WHILE, DO, RETURN);
+    private static final EnumSet<TokenType> CLASS_MEMBERS = EnumSet.of(FIELD, STATIC, CONSTRUCTOR, FUNCTION, METHOD);
+
+    private TokenCursor tokens;
+    private TokenArray array; // so quando os tokens vem de um TokenArray
     private String className = "";
-    private StringBuilder xmlOutput = new StringBuilder();
+    private Interner interner; // a dos tokens
+    private int classId;
+    private ParseListener listener = ParseListener.NONE;
+    private ClassIndex index; // se houver, as chamadas sao conferidas contra ele
+    private ClassRegistry registry; // compilacao paralela de varios arquivos
+    private ClassIndex ownSignatures; // as da propria classe, publicadas no registry
     private VMWriter vmWriter = new VMWriter();
 
     private int ifLabelNum = 0 ;
     private int whileLabelNum = 0;
 
+    private String fileName;
+    private final Diagnostics diagnostics;
+
+    // para a recuperacao de erros: quantos erros ja houve e quantas chaves estao abertas
+    private int errorCount = 0;
+    private int depth = 0;
+
     public Parser(byte[] input) {
-        scan = new Scanner(input);
-        nextToken();
+        this(ByteBuffer.wrap(input));
+    }
+
+    public Parser(ByteBuffer input) {
+        this(new Source(input), new Diagnostics());
+    }
+
+    public Parser(Source source, Diagnostics diagnostics) {
+        this(new Scanner(source, diagnostics), source.name(), diagnostics);
+    }
+
+    public Parser(TokenSource source) {
+        this(source, "", new Diagnostics());
+    }
+
+    public Parser(TokenSource source, String fileName, Diagnostics diagnostics) {
+        tokens = TokenCursor.of(source);
+        this.fileName = fileName;
+        this.diagnostics = diagnostics;
+        this.interner = source.interner();
+        this.classId = interner.intern(className);
+        this.symTable = new SymbolTable(interner);
+    }
+
+    // percorre por indice os tokens ja separados por TokenArray.tokenize
+    public Parser(TokenArray array) {
+        this(array, new Diagnostics());
+    }
+
+    public Parser(TokenArray array, Diagnostics diagnostics) {
+        tokens = array.cursor();
+        this.array = array;
+        this.fileName = array.source().name();
+        this.diagnostics = diagnostics;
+        this.interner = array.source().interner();
+        this.classId = interner.intern(className);
+        this.symTable = new SymbolTable(interner);
+    }
+
+    // analisa subrotinas de uma classe cujo cabecalho ja foi lido por parent,
+    // a partir do token start de array
+    private Parser(Parser parent, TokenArray array, int start, Diagnostics diagnostics) {
+        this.tokens = array.cursor(start);
+        this.array = array;
+        this.fileName = array.source().name();
+        this.diagnostics = diagnostics;
+        this.className = parent.className;
+        this.interner = parent.interner;
+        this.classId = parent.classId;
+        this.symTable = new SymbolTable(parent.symTable);
+        this.index = parent.index;
+        this.registry = parent.registry;
+        this.ownSignatures = parent.ownSignatures;
+        this.depth = 1;
+    }
+
+    // passa a analisar array do zero, reaproveitando tabelas e buffers (CompilationContext);
+    // os erros continuam indo para o mesmo diagnostics
+    void reset(TokenArray array) {
+        this.tokens = array.cursor();
+        this.array = array;
+        this.fileName = array.source().name();
+        interner = array.source().interner();
+        className = "";
+        classId = interner.intern(className);
+        listener = ParseListener.NONE;
+        index = null;
+        registry = null;
+        ownSignatures = null;
+        vmWriter.reset((Writer) null);
+        symTable.reset(interner);
+        ifLabelNum = 0;
+        whileLabelNum = 0;
+        errorCount = 0;
+        depth = 0;
+    }
+
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
 
+    // cada subrotina e escrita em out assim que termina, em vez de acumular a classe toda
+    public void setOutput(Writer out) {
+        vmWriter.reset(out);
     }
 
+    // o mesmo, mas em bytes, sem converter para caracteres
+    public void setOutput(OutputStream out) {
+        vmWriter.reset(out);
+    }
+
+    // com o indice do programa, chamadas para subrotinas que nao existem, metodos
+    // chamados como funcao e numero errado de argumentos viram erros
+    public void setClassIndex(ClassIndex index) {
+        this.index = index;
+    }
+
+    // os fatos da classe sao publicados em registry e as chamadas para as outras
+    // classes do programa sao conferidas com o que elas publicarem
+    public void setRegistry(ClassRegistry registry) {
+        this.registry = registry;
+    }
+
+    // o XML so e montado se um XmlParseListener for passado aqui
+    public void setListener(ParseListener listener) {
+        this.listener = listener;
+    }
+
+    // os erros ficam em diagnostics(); a analise continua depois de cada um
     public void parse() {
-        parseClass();
+        try {
+            parseClass();
+        } catch (ParseError e) {
+            // ja registrado
+        }
     }
 
-    void parseClass() {
-        printNonTerminal("class");
-        expectPeek(CLASS);
-        expectPeek(IDENT);
-        className = currentToken.lexeme;
-        expectPeek(LBRACE);
+    /*
+     * Como parse(), mas cada subrotina e analisada e gerada em paralelo no
+     * pool, com sua propria tabela de subrotina, contadores de rotulos e
+     * VMWriter; a saida e juntada na ordem do fonte e fica igual a de parse().
+     * So vale para tokens de um TokenArray, sem listener e com mais de uma
+     * thread no pool; senao usa parse().
+     */
+    public void parse(ForkJoinPool pool) {
+        if (array == null || listener != ParseListener.NONE || pool.getParallelism() < 2) {
+            parse();
+            return;
+        }
+        try {
+            parseClassParallel(pool);
+        } catch (ParseError e) {
+            // ja registrado
+        }
+    }
+
+    /*
+     * Os limites das subrotinas vem da contagem de chaves, que nao e o que a
+     * recuperacao de erros de parse() segue. Entao cada subrotina tem seus
+     * proprios erros e, se o cabecalho teve erro ou alguma parou fora do seu
+     * limite, tudo o que foi feito em paralelo e descartado e as subrotinas
+     * sao analisadas de novo em sequencia, a partir do fim do cabecalho.
+     */
+    private void parseClassParallel(ForkJoinPool pool) {
+        var starts = new ArrayList<Integer>();
+        int end = parseHeader(starts);
+        if (errorCount != 0) {
+            parseClassBody();
+            return;
+        }
+
+        var parsers = new ArrayList<Parser>(starts.size());
+        var tasks = new ArrayList<ForkJoinTask<VMWriter>>(starts.size());
+        for (int i = 0; i < starts.size(); i++) {
+            int stop = i + 1 < starts.size() ? starts.get(i + 1) : end;
+            var parser = subroutineParser(array, starts.get(i), new Diagnostics());
+            parsers.add(parser);
+            tasks.add(pool.submit(() -> parser.parseSubroutines(stop)));
+        }
+        boolean agrees = true;
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).join();
+            int stop = i + 1 < starts.size() ? starts.get(i + 1) : end;
+            agrees &= parsers.get(i).endedAt(stop);
+        }
+        if (!agrees) {
+            parseClassBody();
+            return;
+        }
+
+        for (int i = 0; i < tasks.size(); i++) {
+            diagnostics.addAll(parsers.get(i).diagnostics());
+            vmWriter.append(tasks.get(i).join());
+            vmWriter.flush();
+        }
+        ((TokenArray.Cursor) tokens).seek(end - 1);
+        parseClassEnd();
+    }
+
+    /*
+     * Modo por indice (parse paralelo e IncrementalCompiler): le o cabecalho
+     * da classe e guarda em starts o inicio de cada subrotina (palavra-chave
+     * dentro das chaves da classe). Devolve o indice da '}' que fecha a
+     * classe, ou do EOF se ela faltar.
+     */
+    int parseHeader(List<Integer> starts) {
+        parseClassHeader();
+        int end = ((TokenArray.Cursor) tokens).position() + 1;
+        for (int level = depth; ; end++) {
+            var type = array.type(end);
+            if (type == EOF || (type == RBRACE && level == 1))
+                return end;
+            if (level == 1 && (starts.isEmpty() || SUBROUTINES.contains(type)))
+                starts.add(end);
+            if (type == LBRACE)
+                level++;
+            else if (type == RBRACE)
+                level--;
+        }
+    }
+
+    // parser para as subrotinas que comecam no token start de array (que pode
+    // ser uma versao editada dos tokens deste parser)
+    Parser subroutineParser(TokenArray array, int start, Diagnostics diagnostics) {
+        return new Parser(this, array, start, diagnostics);
+    }
+
+    // a '}' que fecha a classe deve ser o proximo token
+    void parseClassEnd() {
+        try {
+            expectPeek(TokenType.RBRACE);
+        } catch (ParseError e) {
+            // ja registrado
+        }
+    }
 
-        while (peekTokenIs(TokenType.STATIC) || peekTokenIs(TokenType.FIELD)) {
-            parseClassVarDec();
+    // as subrotinas que comecam antes do token stop; para antes tambem onde
+    // parse() pararia, numa '}' ou no EOF
+    VMWriter parseSubroutines(int stop) {
+        var cursor = (TokenArray.Cursor) tokens;
+        while (cursor.position() + 1 < stop && tokens.peekType() != RBRACE && tokens.peekType() != EOF) {
+            parseSubroutineDec();
         }
+        return vmWriter;
+    }
 
-        while (peekTokenIs(TokenType.FUNCTION) || peekTokenIs(TokenType.CONSTRUCTOR) || peekTokenIs(TokenType.METHOD)) {
+    // parseSubroutines(stop) terminou onde parse() teria terminado as mesmas
+    // subrotinas: no token stop e de volta ao nivel da classe
+    boolean endedAt(int stop) {
+        return ((TokenArray.Cursor) tokens).position() + 1 == stop && depth == 1;
+    }
+
+    void parseClass() {
+        printNonTerminal("class");
+        parseClassHeader();
+        parseClassBody();
+        printEndNonTerminal("class");
+    }
+
+    // as subrotinas e a '}' que fecha a classe
+    private void parseClassBody() {
+        while (tokens.peekType() != RBRACE && tokens.peekType() != EOF) {
             parseSubroutineDec();
         }
 
         expectPeek(TokenType.RBRACE);
+    }
+
+    // "class Nome {" e as declaracoes static/field
+    private void parseClassHeader() {
+        try {
+            expectPeek(CLASS);
+            expectPeek(IDENT);
+            className = tokens.currentLexeme();
+            classId = tokens.currentId();
+            expectPeek(LBRACE);
+        } catch (ParseError e) {
+            synchronizeMember();
+        }
 
-        printNonTerminal("/class");
+        while (CLASS_VARS.contains(tokens.peekType())) {
+            try {
+                parseClassVarDec();
+            } catch (ParseError e) {
+                synchronizeMember();
+            }
+        }
+        publishFacts();
+    }
+
+    // antes de qualquer corpo de subrotina, que pode esperar por outras classes
+    private void publishFacts() {
+        if (registry != null)
+            registry.publish(fileName, facts());
+    }
+
+    // o que a classe expoe para as outras (registry, .jacki); valido depois do cabecalho
+    public ClassRegistry.ClassFacts facts() {
+        if (ownSignatures == null) {
+            ownSignatures = new ClassIndex();
+            if (array != null)
+                ownSignatures.add(array.source());
+        }
+        return new ClassRegistry.ClassFacts(className,
+                symTable.varCount(Kind.FIELD), symTable.varCount(Kind.STATIC), ownSignatures);
     }
 
-    private SymbolTable symTable = new SymbolTable();
+    private SymbolTable symTable;
 
     private void nextToken() {
-        currentToken = peekToken;
-        peekToken = scan.nextToken();
+        tokens.advance();
+        if (tokens.currentType() == LBRACE)
+            depth++;
+        else if (tokens.currentType() == RBRACE)
+            depth--;
+    }
+
+    // depois de um erro num comando: para antes do proximo comando, de '}' ou
+    // de uma subrotina, ou logo depois de um ';'
+    private void synchronizeStatement() {
+        while (true) {
+            var type = tokens.peekType();
+            if (type == EOF || type == RBRACE || STATEMENTS.contains(type) || SUBROUTINES.contains(type))
+                return;
+            nextToken();
+            if (type == SEMICOLON)
+                return;
+        }
+    }
+
+    // depois de um erro fora dos comandos: para antes da proxima declaracao
+    // da classe ou da '}' que fecha a classe
+    private void synchronizeMember() {
+        while (true) {
+            var type = tokens.peekType();
+            if (type == EOF || CLASS_MEMBERS.contains(type) || (type == RBRACE && depth == 1))
+                return;
+            nextToken();
+        }
     }
 
     public String XMLOutput() {
-        return xmlOutput.toString();
+        if (listener instanceof XmlParseListener xml)
+            return xml.output();
+        return "";
     }
 
 
     private void printNonTerminal(String nterminal) {
-        xmlOutput.append(String.format("<%s>\r\n", nterminal));
+        listener.startNonTerminal(nterminal);
+    }
+
+    private void printEndNonTerminal(String nterminal) {
+        listener.endNonTerminal(nterminal);
     }
 
-    private void expectPeek(TokenType... types) {
-        if (Arrays.stream(types).anyMatch(type -> peekToken.type == type)) {
+    private void expectPeek(TokenType type) {
+        if (tokens.peekType() == type) {
             nextTokenAndAppend();
         } else {
-            throw error(peekToken, "Expected one of: " + Arrays.toString(types));
+            throw error(tokens.peekToken(), "Expected one of: [" + type + "]");
+        }
+    }
+
+    private void expectPeek(EnumSet<TokenType> types) {
+        if (types.contains(tokens.peekType())) {
+            nextTokenAndAppend();
+        } else {
+            throw error(tokens.peekToken(), "Expected one of: " + types);
         }
     }
 
     // Faz parte do expectPeek
     private void nextTokenAndAppend() {
         nextToken();
-        xmlOutput.append(String.format("%s\r\n", currentToken));
+        if (listener != ParseListener.NONE) // evita criar o Token quando ninguem escuta
+            listener.terminal(tokens.currentToken());
     }
 
     boolean currentTokenIs(TokenType type) {
-        return currentToken.type == type;
+        return tokens.currentType() == type;
     }
 
     boolean peekTokenIs(TokenType type) {
-        return peekToken.type == type;
+        return tokens.peekType() == type;
     }
 
-    private static void report(int line, String where,
+    private void report(Token token, String where,
             String message) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message);
+        diagnostics.report(fileName, token.line(), token.column(), "Error" + where + ": " + message);
     }
 
     private ParseError error(Token token, String message) {
+        errorCount++;
         if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+            report(token, " at end", message);
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            report(token, " at '" + token.lexeme() + "'", message);
         }
         return new ParseError();
     }
 
-    private Segment kind2Segment(Kind kind) {
-        if (kind == Kind.STATIC)
-            return Segment.STATIC;
-        if (kind == Kind.FIELD)
-            return Segment.THIS;
-        if (kind == Kind.VAR)
-            return Segment.LOCAL;
-        if (kind == Kind.ARG)
-            return Segment.ARG;
-        return null;
+    // nome repetido no mesmo escopo vira um erro como os outros
+    private void define(int name, int type, Kind kind) {
+        try {
+            symTable.define(name, type, kind);
+        } catch (RuntimeException e) {
+            throw error(tokens.currentToken(), e.getMessage());
+        }
+    }
+
+    // id no Interner do tipo que acabou de ser lido (int, char, boolean ou nome de classe)
+    private int currentTypeId() {
+        switch (tokens.currentType()) {
+            case INT:
+                return Interner.INT_ID;
+            case CHAR:
+                return Interner.CHAR_ID;
+            case BOOLEAN:
+                return Interner.BOOLEAN_ID;
+            default:
+                return tokens.currentId();
+        }
+    }
+
+    /*
+     * Expressoes sao analisadas sem recursao, numa pilha explicita de quadros.
+     * Cada quadro diz o que falta fazer quando terminar a expressao ou o termo
+     * de dentro dele; assim a profundidade de aninhamento (parenteses, -/~,
+     * indices e argumentos) fica limitada pelo heap e nao pela pilha da thread.
+     * A ordem do codigo e dos eventos e a mesma da versao recursiva.
+     */
+    private static final int EXPRESSION = 0; // a = operador pendente (ordinal) ou -1
+    private static final int UNARY = 1;      // a = operador (ordinal)
+    private static final int PAREN = 2;
+    private static final int ARRAY = 3;      // a = segmento (ordinal), b = indice
+    private static final int CALL = 4;       // name = funcao, a = argumentos, b = 1 se fecha um termo
+
+    // o que fazer a seguir
+    private static final int START_TERM = 0;
+    private static final int TERM_DONE = 1;
+    private static final int EXPRESSION_DONE = 2;
+
+    private static final TokenType[] typeValues = TokenType.values();
+    private static final Segment[] segmentValues = Segment.values();
+
+    private int[] frameKind = new int[32];
+    private int[] frameA = new int[32];
+    private int[] frameB = new int[32];
+    private String[] frameName = new String[32];
+    private int frames = 0;
+
+    private void pushFrame(int kind, int a, int b, String name) {
+        if (frames == frameKind.length) {
+            int capacity = frames * 2;
+            frameKind = Arrays.copyOf(frameKind, capacity);
+            frameA = Arrays.copyOf(frameA, capacity);
+            frameB = Arrays.copyOf(frameB, capacity);
+            frameName = Arrays.copyOf(frameName, capacity);
+        }
+        frameKind[frames] = kind;
+        frameA[frames] = a;
+        frameB[frames] = b;
+        frameName[frames] = name;
+        frames++;
     }
 
-   void parseTerm() {
-    printNonTerminal("term");
-    switch (peekToken.type) {
-        case NUMBER:
-            expectPeek(TokenType.NUMBER);
-            vmWriter.writePush(Segment.CONST, Integer.parseInt(currentToken.lexeme));
-            break;
-        case STRING:
-            expectPeek(TokenType.STRING);
-            var strValue = currentToken.lexeme;
-            vmWriter.writePush(Segment.CONST, strValue.length());
-            vmWriter.writeCall("String.new", 1);
-            for (int i = 0; i < strValue.length(); i++) {
-                vmWriter.writePush(Segment.CONST, strValue.charAt(i));
-                vmWriter.writeCall("String.appendChar", 2);
+    // processa os quadros ate a pilha voltar a base
+    private void run(int base, int next) {
+        try {
+            while (true) {
+                if (next == START_TERM) {
+                    next = startTerm();
+                } else if (frames == base) {
+                    return;
+                } else if (next == TERM_DONE) {
+                    next = termDone();
+                } else {
+                    next = expressionDone();
+                }
             }
-            break;
-        case FALSE:
-        case NULL:
-        case TRUE:
-            expectPeek(FALSE, NULL, TRUE);
-            vmWriter.writePush(Segment.CONST, 0);
-            if (currentToken.type == TRUE)
-                vmWriter.writeArithmetic(Command.NOT);
-            break;
-        case THIS:
-            expectPeek(THIS);
-            vmWriter.writePush(Segment.POINTER, 0);
-            break;
-        case IDENT:
-            expectPeek(TokenType.IDENT);
-            
-            if (peekTokenIs(TokenType.LPAREN) || peekTokenIs(TokenType.DOT)) {
-                parseSubroutineCall(); // Chamada de função/método
-            } else {
-                Symbol sym = symTable.resolve(currentToken.lexeme);
+        } finally {
+            frames = base; // depois de um erro os quadros abertos sao descartados
+        }
+    }
+
+    void parseTerm() {
+        run(frames, START_TERM);
+    }
+
+    static public boolean isOperator(String op) {
+        return op.length() == 1 && "+-*/<>=~&|".contains(op);
+    }
+
+    // operadores binarios de uma expressao
+    static boolean isOperator(TokenType type) {
+        return OPERATORS.contains(type);
+    }
+
+    void parseExpression() {
+        int base = frames;
+        beginExpression();
+        run(base, START_TERM);
+    }
+
+    private void beginExpression() {
+        printNonTerminal("expression");
+        pushFrame(EXPRESSION, -1, 0, null);
+    }
+
+    // abre um termo; os simples ja terminam aqui
+    private int startTerm() {
+        printNonTerminal("term");
+        switch (tokens.peekType()) {
+            case NUMBER:
+                expectPeek(TokenType.NUMBER);
+                vmWriter.writePush(Segment.CONST, tokens.currentInt());
+                break;
+            case STRING:
+                expectPeek(TokenType.STRING);
+                var strValue = tokens.currentLexeme();
+                vmWriter.writePush(Segment.CONST, strValue.length());
+                vmWriter.writeCall("String.new", 1);
+                for (int i = 0; i < strValue.length(); i++) {
+                    vmWriter.writePush(Segment.CONST, strValue.charAt(i));
+                    vmWriter.writeCall("String.appendChar", 2);
+                }
+                break;
+            case FALSE:
+            case NULL:
+            case TRUE:
+                expectPeek(KEYWORD_CONSTANTS);
+                vmWriter.writePush(Segment.CONST, 0);
+                if (tokens.currentType() == TRUE)
+                    vmWriter.writeArithmetic(Command.NOT);
+                break;
+            case THIS:
+                expectPeek(THIS);
+                vmWriter.writePush(Segment.POINTER, 0);
+                break;
+            case IDENT:
+                expectPeek(TokenType.IDENT);
+
+                if (peekTokenIs(TokenType.LPAREN) || peekTokenIs(TokenType.DOT)) {
+                    // Chamada de função/método
+                    return beginCall(true) ? TERM_DONE : START_TERM;
+                }
+                Symbol sym = symTable.resolve(tokens.currentId());
                 if (sym == null) {
-                    throw error(currentToken, "Undefined variable " + currentToken.lexeme);
+                    throw error(tokens.currentToken(), "Undefined variable " + tokens.currentLexeme());
                 }
-                
+
                 if (peekTokenIs(LBRACKET)) { // array
                     expectPeek(LBRACKET);
-                    parseExpression();
-                    vmWriter.writePush(kind2Segment(sym.kind()), sym.index());
-                    vmWriter.writeArithmetic(Command.ADD);
-                    expectPeek(RBRACKET);
-                    vmWriter.writePop(Segment.POINTER, 1);
-                    vmWriter.writePush(Segment.THAT, 0);
-                } else {
-                    vmWriter.writePush(kind2Segment(sym.kind()), sym.index());
+                    pushFrame(ARRAY, sym.segment().ordinal(), sym.index(), null);
+                    beginExpression();
+                    return START_TERM;
                 }
-            }
-            break;
-        case LPAREN:
-            expectPeek(TokenType.LPAREN);
-            parseExpression();
-            expectPeek(TokenType.RPAREN);
-            break;
-        case MINUS:
-        case NOT:
-            expectPeek(MINUS, NOT);
-            var op = currentToken.type;
-            parseTerm();
-            if (op == MINUS)
+                vmWriter.writePush(sym.segment(), sym.index());
+                break;
+            case LPAREN:
+                expectPeek(TokenType.LPAREN);
+                pushFrame(PAREN, 0, 0, null);
+                beginExpression();
+                return START_TERM;
+            case MINUS:
+            case NOT:
+                expectPeek(UNARY_OPERATORS);
+                pushFrame(UNARY, tokens.currentType().ordinal(), 0, null);
+                return START_TERM;
+            default:
+                throw error(tokens.peekToken(), "term expected");
+        }
+        printEndNonTerminal("term");
+        return TERM_DONE;
+    }
+
+    // um termo terminou: o topo e uma expressao ou um operador unario
+    private int termDone() {
+        int top = frames - 1;
+        if (frameKind[top] == UNARY) {
+            frames--;
+            if (typeValues[frameA[top]] == MINUS)
                 vmWriter.writeArithmetic(Command.NEG);
             else
                 vmWriter.writeArithmetic(Command.NOT);
-            break;
-        default:
-            throw error(peekToken, "term expected");
-    }
-    printNonTerminal("/term");
-}
+            printEndNonTerminal("term");
+            return TERM_DONE;
+        }
 
-    static public boolean isOperator(String op) {
-        return op != "" && "+-*/<>=~&|".contains(op);
+        if (frameA[top] >= 0)
+            compileOperators(typeValues[frameA[top]]);
+        if (isOperator(tokens.peekType())) {
+            var ope = tokens.peekType();
+            expectPeek(ope);
+            frameA[top] = ope.ordinal();
+            return START_TERM;
+        }
+        frames--;
+        printEndNonTerminal("expression");
+        return EXPRESSION_DONE;
     }
 
-    void parseExpression() {
-        printNonTerminal("expression");
-        parseTerm();
-        while (isOperator(peekToken.lexeme)) {
-            var ope = peekToken.type;
-            expectPeek(peekToken.type);
-            parseTerm();
-            compileOperators(ope);
+    // uma expressao terminou: dentro de parenteses, de um indice ou de uma chamada
+    private int expressionDone() {
+        int top = frames - 1;
+        switch (frameKind[top]) {
+            case PAREN:
+                frames--;
+                expectPeek(TokenType.RPAREN);
+                break;
+            case ARRAY:
+                frames--;
+                vmWriter.writePush(segmentValues[frameA[top]], frameB[top]);
+                vmWriter.writeArithmetic(Command.ADD);
+                expectPeek(RBRACKET);
+                vmWriter.writePop(Segment.POINTER, 1);
+                vmWriter.writePush(Segment.THAT, 0);
+                break;
+            default: // CALL
+                frameA[top]++;
+                if (peekTokenIs(COMMA)) {
+                    expectPeek(COMMA);
+                    beginExpression();
+                    return START_TERM;
+                }
+                frames--;
+                finishCall(frameName[top], frameA[top], (frameB[top] & 1) != 0, (frameB[top] & 2) != 0,
+                        (frameB[top] >> 2) - 1);
+                frameName[top] = null;
+                return TERM_DONE;
         }
-        printNonTerminal("/expression");
+        printEndNonTerminal("term");
+        return TERM_DONE;
     }
 
     void parseLet() {
@@ -221,13 +685,16 @@ public class Parser {
         expectPeek(TokenType.LET);
         expectPeek(TokenType.IDENT);
     
-        var symbol = symTable.resolve(currentToken.lexeme);
+        var symbol = symTable.resolve(tokens.currentId());
+        if (symbol == null) {
+            throw error(tokens.currentToken(), "Undefined variable " + tokens.currentLexeme());
+        }
     
         if (peekTokenIs(LBRACKET)) { // array
             expectPeek(LBRACKET);
             parseExpression();
             
-            vmWriter.writePush(kind2Segment(symbol.kind()), symbol.index());
+            vmWriter.writePush(symbol.segment(), symbol.index());
             vmWriter.writeArithmetic(Command.ADD);
     
             expectPeek(RBRACKET);
@@ -249,73 +716,111 @@ public class Parser {
     
 
         } else {
-            vmWriter.writePop(kind2Segment(symbol.kind()), symbol.index());
+            vmWriter.writePop(symbol.segment(), symbol.index());
         }
     
         expectPeek(TokenType.SEMICOLON);
-        printNonTerminal("/letStatement");
+        printEndNonTerminal("letStatement");
     }
 
     void parseSubroutineCall() {
+        int base = frames;
+        if (!beginCall(false))
+            run(base, START_TERM);
+    }
+
+    // le a chamada ate o '(' e abre a lista de argumentos; true se a lista ja terminou
+    private boolean beginCall(boolean closeTerm) {
         var nArgs = 0;
-        var ident = currentToken.lexeme;
+        var ident = tokens.currentId();
         var symbol = symTable.resolve(ident);
         var functionName = "";
+        var expected = -1;
     
         if (peekTokenIs(LPAREN)) {
             // Method call without object (same class)
-            functionName = className + "." + ident;
+            functionName = interner.qualified(classId, ident);
+            expected = checkCall(classId, functionName, true, false);
             expectPeek(LPAREN);
             vmWriter.writePush(Segment.POINTER, 0);
-            nArgs = parseExpressionList() + 1;
-            expectPeek(RPAREN);
+            nArgs = 1;
         } else {
             expectPeek(DOT);
             expectPeek(IDENT);
-            var subroutineName = currentToken.lexeme;
+            var subroutineName = tokens.currentId();
     
             if (symbol != null) {
                 // Method call with object
-                functionName = symbol.type() + "." + subroutineName;
+                functionName = interner.qualified(symbol.typeId(), subroutineName);
+                expected = checkCall(symbol.typeId(), functionName, true, true);
                 expectPeek(LPAREN);
-                vmWriter.writePush(kind2Segment(symbol.kind()), symbol.index());
-                nArgs = parseExpressionList() + 1;
-                expectPeek(RPAREN);
+                vmWriter.writePush(symbol.segment(), symbol.index());
+                nArgs = 1;
             } else {
                 // Function or constructor call
-                functionName = ident + "." + subroutineName;
+                functionName = interner.qualified(ident, subroutineName);
+                expected = checkCall(ident, functionName, false, false);
                 expectPeek(LPAREN);
-                nArgs = parseExpressionList();
-                expectPeek(RPAREN);
             }
         }
-    
-        vmWriter.writeCall(functionName, nArgs);
-    }
-
-    
-
-  int parseExpressionList() {
-    printNonTerminal("expressionList");
 
-    var nArgs = 0;
+        // no quadro: bit 0 = fechar o termo, bit 1 = chamada com objeto (this conta como
+        // argumento), o resto = numero de parametros esperado + 1 (0 se desconhecido)
+        boolean method = nArgs == 1;
+        printNonTerminal("expressionList");
+        if (peekTokenIs(RPAREN)) {
+            finishCall(functionName, nArgs, closeTerm, method, expected);
+            return true;
+        }
+        pushFrame(CALL, nArgs, (closeTerm ? 1 : 0) | (method ? 2 : 0) | (expected + 1) << 2, functionName);
+        beginExpression();
+        return false;
+    }
 
-    if (!peekTokenIs(RPAREN)) // verifica se tem pelo menos uma expressao
-    {
-        parseExpression();
-        nArgs = 1;
+    // o token atual e o nome da subrotina chamada; devolve o numero de parametros
+    // esperado, ou -1 se a classe nao e conhecida. onObject: chamada como obj.f()
+    private int checkCall(int targetClassId, String functionName, boolean method, boolean onObject) {
+        var signatures = signatures(targetClassId);
+        if (signatures == null)
+            return -1;
+        var signature = signatures.lookup(functionName);
+        if (signature == null) {
+            error(tokens.currentToken(), "Undefined subroutine " + functionName);
+            return -1;
+        }
+        if (!method && signature.kind() == METHOD)
+            error(tokens.currentToken(), functionName + " is a method and needs an object");
+        if (onObject && signature.kind() != METHOD)
+            error(tokens.currentToken(), functionName + " is a " + signature.kind().value
+                    + " and cannot be called on an object");
+        return signature.parameters();
     }
 
-    // procurando as demais
-    while (peekTokenIs(COMMA)) {
-        expectPeek(COMMA);
-        parseExpression();
-        nArgs++;
+    // onde procurar as subrotinas da classe, ou null se ela nao e conhecida
+    private ClassIndex signatures(int targetClassId) {
+        if (targetClassId == classId && ownSignatures != null)
+            return ownSignatures;
+        var name = interner.name(targetClassId);
+        if (registry != null && registry.expects(name)) {
+            var facts = registry.facts(name); // espera a outra classe publicar
+            return facts != null ? facts.signatures() : null;
+        }
+        if (index != null && index.hasClass(name))
+            return index;
+        return null;
     }
 
-    printNonTerminal("/expressionList");
-    return nArgs;
-}
+    private void finishCall(String functionName, int nArgs, boolean closeTerm, boolean method, int expected) {
+        printEndNonTerminal("expressionList");
+        expectPeek(RPAREN);
+        // chamada sem objeto a uma function da propria classe: o this empilhado nao conta
+        int args = method ? nArgs - 1 : nArgs;
+        if (expected >= 0 && expected != args)
+            error(tokens.currentToken(), functionName + " expects " + expected + " arguments, got " + args);
+        vmWriter.writeCall(functionName, nArgs);
+        if (closeTerm)
+            printEndNonTerminal("term");
+    }
 
 public void parseDo() {
     printNonTerminal("doStatement");
@@ -324,35 +829,31 @@ public void parseDo() {
     parseSubroutineCall();
     expectPeek(SEMICOLON);
     vmWriter.writePop(Segment.TEMP, 0);
-    printNonTerminal("/doStatement");
+    printEndNonTerminal("doStatement");
 }
 
     public void parseIf() {
         printNonTerminal("ifStatement");
 
-        var labelTrue = "IF_TRUE" + ifLabelNum;
-        var labelFalse = "IF_FALSE" + ifLabelNum;
-        var labelEnd = "IF_END" + ifLabelNum;
-
-        ifLabelNum++;
+        var label = ifLabelNum++;
 
         expectPeek(TokenType.IF);
         expectPeek(TokenType.LPAREN);
         parseExpression();
         expectPeek(TokenType.RPAREN);
 
-        vmWriter.writeIf(labelTrue);
-        vmWriter.writeGoto(labelFalse);
-        vmWriter.writeLabel(labelTrue);
+        vmWriter.writeIf("IF_TRUE", label);
+        vmWriter.writeGoto("IF_FALSE", label);
+        vmWriter.writeLabel("IF_TRUE", label);
 
         expectPeek(TokenType.LBRACE);
         parseStatements();
         expectPeek(TokenType.RBRACE);
         if (peekTokenIs(ELSE)){
-            vmWriter.writeGoto(labelEnd);
+            vmWriter.writeGoto("IF_END", label);
         }
 
-        vmWriter.writeLabel(labelFalse);
+        vmWriter.writeLabel("IF_FALSE", label);
 
         if (peekTokenIs(ELSE))
         {
@@ -360,36 +861,34 @@ public void parseDo() {
             expectPeek(LBRACE);
             parseStatements();
             expectPeek(RBRACE);
-            vmWriter.writeLabel(labelEnd);
+            vmWriter.writeLabel("IF_END", label);
         }
-        printNonTerminal("/ifStatement");
+        printEndNonTerminal("ifStatement");
     }
 
     public void parseWhile() {
         printNonTerminal("whileStatement");
 
-        var labelTrue = "WHILE_EXP" + whileLabelNum;
-        var labelFalse = "WHILE_END" + whileLabelNum;
-        whileLabelNum++;
+        var label = whileLabelNum++;
 
-        vmWriter.writeLabel(labelTrue);
+        vmWriter.writeLabel("WHILE_EXP", label);
 
         expectPeek(WHILE);
         expectPeek(LPAREN);
         parseExpression();
 
         vmWriter.writeArithmetic(Command.NOT);
-        vmWriter.writeIf(labelFalse);
+        vmWriter.writeIf("WHILE_END", label);
 
         expectPeek(RPAREN);
         expectPeek(LBRACE);
         parseStatements();
 
-        vmWriter.writeGoto(labelTrue); 
-        vmWriter.writeLabel(labelFalse); 
+        vmWriter.writeGoto("WHILE_EXP", label);
+        vmWriter.writeLabel("WHILE_END", label);
 
         expectPeek(RBRACE);
-        printNonTerminal("/whileStatement");
+        printEndNonTerminal("whileStatement");
     }
     
     public void parseReturn() {
@@ -403,7 +902,7 @@ public void parseDo() {
         expectPeek(SEMICOLON);
         vmWriter.writeReturn();
 
-        printNonTerminal("/returnStatement");
+        printEndNonTerminal("returnStatement");
     }
     
 
@@ -413,80 +912,95 @@ public void parseDo() {
 
         SymbolTable.Kind kind = Kind.VAR;
 
-        expectPeek(INT, CHAR, BOOLEAN, IDENT);
-        String type = currentToken.lexeme;
+        expectPeek(TYPES);
+        int type = currentTypeId();
 
         expectPeek(IDENT);
-        String name = currentToken.lexeme;
-        symTable.define(name, type, kind);
+        int name = tokens.currentId();
+        define(name, type, kind);
 
         while (peekTokenIs(COMMA)) {
             expectPeek(COMMA);
             expectPeek(IDENT);
 
-            name = currentToken.lexeme;
-            symTable.define(name, type, kind);
+            name = tokens.currentId();
+            define(name, type, kind);
 
         }
 
         expectPeek(SEMICOLON);
-        printNonTerminal("/varDec");
+        printEndNonTerminal("varDec");
     }
 
     void parseClassVarDec() {
         printNonTerminal("classVarDec");
-        expectPeek(FIELD, STATIC);
+        expectPeek(CLASS_VARS);
 
         SymbolTable.Kind kind = Kind.STATIC;
         if (currentTokenIs(FIELD))
             kind = Kind.FIELD;
 
-        expectPeek(INT, CHAR, BOOLEAN, IDENT);
-        String type = currentToken.lexeme;
+        expectPeek(TYPES);
+        int type = currentTypeId();
 
         expectPeek(IDENT);
-        String name = currentToken.lexeme;
+        int name = tokens.currentId();
 
-        symTable.define(name, type, kind);
+        define(name, type, kind);
         while (peekTokenIs(COMMA)) {
             expectPeek(COMMA);
             expectPeek(IDENT);
 
-            name = currentToken.lexeme;
-            symTable.define(name, type, kind);
+            name = tokens.currentId();
+            define(name, type, kind);
         }
 
         expectPeek(SEMICOLON);
-        printNonTerminal("/classVarDec");
+        printEndNonTerminal("classVarDec");
     }
 
 
+    // uma subrotina com erro nao gera codigo, mas a analise segue para a proxima
     void parseSubroutineDec() {
         printNonTerminal("subroutineDec");
     
         ifLabelNum = 0;
         whileLabelNum = 0;
+        int errors = errorCount;
+        int mark = vmWriter.mark();
+        boolean started = false;
     
         symTable.startSubroutine();
     
-        expectPeek(CONSTRUCTOR, FUNCTION, METHOD);
-        var subroutineType = currentToken.type;
+        try {
+            expectPeek(SUBROUTINES);
+            started = true;
+            var subroutineType = tokens.currentType();
     
-        if (subroutineType == METHOD) {
-            symTable.define("this", className, Kind.ARG);
-        }
+            if (subroutineType == METHOD) {
+                symTable.define(Interner.THIS_ID, classId, Kind.ARG);
+            }
     
-        expectPeek(VOID, INT, CHAR, BOOLEAN, IDENT); 
-        expectPeek(IDENT);
+            expectPeek(RETURN_TYPES);
+            expectPeek(IDENT);
     
-        var functionName = className + "." + currentToken.lexeme;
+            var functionName = interner.qualified(classId, tokens.currentId());
     
-        expectPeek(LPAREN);
-        parseParameterList();
-        expectPeek(RPAREN);
-        parseSubroutineBody(functionName, subroutineType);
+            expectPeek(LPAREN);
+            parseParameterList();
+            expectPeek(RPAREN);
+            parseSubroutineBody(functionName, subroutineType);
+        } catch (ParseError e) {
+            if (!started) // o token nao comeca uma subrotina: pula ele para nao parar no mesmo lugar
+                nextToken();
+            synchronizeMember();
+        }
+
+        if (errorCount != errors)
+            vmWriter.reset(mark);
+        vmWriter.flush();
     
-        printNonTerminal("/subroutineDec");
+        printEndNonTerminal("subroutineDec");
     }
     
     
@@ -500,27 +1014,27 @@ public void parseDo() {
 
         if (!peekTokenIs(RPAREN)) // verifica se tem pelo menos uma expressao
         {
-            expectPeek(INT, CHAR, BOOLEAN, IDENT);
-            String type = currentToken.lexeme;
+            expectPeek(TYPES);
+            int type = currentTypeId();
 
             expectPeek(IDENT);
-            String name = currentToken.lexeme;
-            symTable.define(name, type, kind);
+            int name = tokens.currentId();
+            define(name, type, kind);
 
             while (peekTokenIs(COMMA)) {
                 expectPeek(COMMA);
-                expectPeek(INT, CHAR, BOOLEAN, IDENT);
-                type = currentToken.lexeme;
+                expectPeek(TYPES);
+                type = currentTypeId();
 
                 expectPeek(IDENT);
-                name = currentToken.lexeme;
+                name = tokens.currentId();
 
-                symTable.define(name, type, kind);
+                define(name, type, kind);
             }
 
         }
 
-        printNonTerminal("/parameterList");
+        printEndNonTerminal("parameterList");
     }
     
     void parseSubroutineBody(String functionName, TokenType subroutineType) {
@@ -547,11 +1061,11 @@ public void parseDo() {
 
         parseStatements();
         expectPeek(RBRACE);
-        printNonTerminal("/subroutineBody");
+        printEndNonTerminal("subroutineBody");
     }
 
     public void parseStatement() {
-        switch (peekToken.type) {
+        switch (tokens.peekType()) {
             case LET:
                 parseLet();
                 break;
@@ -568,21 +1082,21 @@ public void parseDo() {
                 parseDo();
                 break;
             default:
-                throw error(peekToken, "Expected a statement");
+                throw error(tokens.peekToken(), "Expected a statement");
         }
     }
 
     public void parseStatements() {
         printNonTerminal("statements");
-        while (peekToken.type == WHILE ||
-                peekToken.type == IF ||
-                peekToken.type == LET ||
-                peekToken.type == DO ||
-                peekToken.type == RETURN) {
-            parseStatement();
+        while (STATEMENTS.contains(tokens.peekType())) {
+            try {
+                parseStatement();
+            } catch (ParseError e) {
+                synchronizeStatement();
+            }
         }
 
-        printNonTerminal("/statements");
+        printEndNonTerminal("statements");
     }
 
     void expr() {
@@ -591,12 +1105,12 @@ public void parseDo() {
     }
 
     void number() {
-        System.out.println(currentToken.lexeme);
+        System.out.println(tokens.currentLexeme());
         match(TokenType.NUMBER);
     }
 
     private void match(TokenType t) {
-        if (currentToken.type == t) {
+        if (tokens.currentType() == t) {
             nextToken();
         } else {
             throw new Error("syntax error");
@@ -604,42 +1118,42 @@ public void parseDo() {
     }
 
     void oper() {
-        if (currentToken.type == TokenType.PLUS) {
+        if (tokens.currentType() == TokenType.PLUS) {
             match(TokenType.PLUS);
             number();
             System.out.println("add");
             oper();
-        } else if (currentToken.type == TokenType.MINUS) {
+        } else if (tokens.currentType() == TokenType.MINUS) {
             match(TokenType.MINUS);
             number();
             System.out.println("sub");
             oper();
-        } else if (currentToken.type == TokenType.LT) {
+        } else if (tokens.currentType() == TokenType.LT) {
             match(TokenType.LT);
             number();
             System.out.println("lt");
             oper();
-        } else if (currentToken.type == TokenType.GT) {
+        } else if (tokens.currentType() == TokenType.GT) {
             match(TokenType.GT);
             number();
             System.out.println("gt");
             oper();
-        } else if (currentToken.type == TokenType.EQ) {
+        } else if (tokens.currentType() == TokenType.EQ) {
             match(TokenType.EQ);
             number();
             System.out.println("eq");
             oper();
-        } else if (currentToken.type == TokenType.AND) {
+        } else if (tokens.currentType() == TokenType.AND) {
             match(TokenType.AND);
             number();
             System.out.println("and");
             oper();
-        } else if (currentToken.type == TokenType.OR) {
+        } else if (tokens.currentType() == TokenType.OR) {
             match(TokenType.OR);
             number();
             System.out.println("or");
             oper();
-        } else if (currentToken.type == TokenType.EOF) {
+        } else if (tokens.currentType() == TokenType.EOF) {
             // vazio
         } else {
             throw new Error("syntax error");
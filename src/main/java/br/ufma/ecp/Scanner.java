@@ -2,248 +2,222 @@ package br.ufma.ecp;
 
 import static br.ufma.ecp.token.TokenType.*;
 
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
 
+import br.ufma.ecp.token.ByteSearch;
+import br.ufma.ecp.token.CharClass;
+import br.ufma.ecp.token.Interner;
+import br.ufma.ecp.token.Keywords;
+import br.ufma.ecp.token.Source;
 import br.ufma.ecp.token.Token;
 import br.ufma.ecp.token.TokenType;
 
-public class Scanner {
+public class Scanner implements TokenSource {
 
-    private byte[] input;
+    private ByteBuffer input;
+    private int length;
+    private Source source;
     private int current;
     private int start;
-    private int line = 1;
-
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("method", TokenType.METHOD);
-        keywords.put("while", TokenType.WHILE);
-        keywords.put("if", TokenType.IF);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("constructor", TokenType.CONSTRUCTOR);
-        keywords.put("function", TokenType.FUNCTION);
-        keywords.put("field", TokenType.FIELD);
-        keywords.put("static", TokenType.STATIC);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("int", TokenType.INT);
-        keywords.put("char", TokenType.CHAR);
-        keywords.put("boolean", TokenType.BOOLEAN);
-        keywords.put("void", TokenType.VOID);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("null", TokenType.NULL);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("let", TokenType.LET);
-        keywords.put("do", TokenType.DO);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("return", TokenType.RETURN);
-    }
+    private int end;
+    private int id = -1;
+    private Interner interner;
+    private final Diagnostics diagnostics;
 
     public Scanner(byte[] input) {
-        this.input = input;
-        current = 0;
-        start = 0;
+        this(ByteBuffer.wrap(input));
     }
 
-    private void skipWhitespace() {
-        char ch = peek();
-        while (ch == ' ' || ch == '\r' || ch == '\t' || ch == '\n') {
-
-            if (ch == '\n')
-                line++;
+    public Scanner(ByteBuffer input) {
+        this(new Source(input), new Diagnostics());
+    }
 
-            advance();
-            ch = peek();
-        }
+    public Scanner(Source source, Diagnostics diagnostics) {
+        this(source, 0, -1, diagnostics);
     }
 
-    private void skipLineComments() {
-        for (char ch = peek(); ch != '\n' && ch != 0; advance(), ch = peek())
-            if (ch == '\n')
-                line++;
+    // analisa so o trecho [from, to) do fonte; os offsets continuam absolutos
+    Scanner(Source source, int from, int to, Diagnostics diagnostics) {
+        this.source = source;
+        this.diagnostics = diagnostics;
+        this.input = source.buffer();
+        this.interner = source.interner();
+        this.length = to < 0 ? source.length() : to;
+        current = from;
+        start = from;
     }
 
-    private void skipBlockComments() {
-        boolean endComment = false;
-        advance();
+    // recomeca em outro fonte, para reaproveitar o Scanner (CompilationContext)
+    void reset(Source source) {
+        this.source = source;
+        this.input = source.buffer();
+        this.interner = source.interner();
+        this.length = source.length();
+        current = 0;
+        start = 0;
+        end = 0;
+        id = -1;
+    }
 
-        while (!endComment) {
-            advance();
-            char ch = peek();
+    // em loop, para muitos comentarios seguidos nao empilharem chamadas;
+    // false se um comentario de bloco nao fecha
+    private boolean skipWhitespaceAndComments() {
+        while (true) {
+            skipWhitespace();
+            if (peek() != '/')
+                return true;
+            if (peekNext() == '/') {
+                skipLineComments();
+            } else if (peekNext() == '*') {
+                if (!skipBlockComments())
+                    return false;
+            } else {
+                return true;
+            }
+        }
+    }
 
-            if (ch == '\n')
-                line++;
+    private void skipWhitespace() {
+        current = ByteSearch.skipSpaces(input, current, length);
+    }
 
-            if (ch == 0) { // eof, lexical error
-                System.exit(1);
-            }
+    private void skipLineComments() {
+        current = ByteSearch.indexOfNewline(input, current, length);
+    }
 
-            if (ch == '*') {
-                for (ch = peek(); ch == '*'; advance(), ch = peek())
-                    ;
-                if (ch == '/') {
-                    endComment = true;
-                    advance();
-                }
-            }
+    // false se o comentario nao fecha; o erro e registrado e a analise vai para o fim
+    private boolean skipBlockComments() {
+        int end = ByteSearch.indexOfCommentEnd(input, current + 2, length);
 
+        if (end >= length || input.get(end) == 0) { // eof, lexical error
+            diagnostics.report(source, current, "unterminated comment");
+            current = end;
+            return false;
         }
+
+        current = end + 2;
+        return true;
     }
 
-    public Token nextToken() {
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
 
-        skipWhitespace();
+    public Interner interner() {
+        return interner;
+    }
 
-        start = current;
-        char ch = peek();
+    public Token nextToken() {
+        TokenType type = scan();
+        return new Token(type, source, start, end - start, 0, type == IDENT ? id : -1);
+    }
 
-        if (Character.isDigit(ch)) {
-            return number();
-        }
+    // reconhece o proximo token sem criar objeto: o lexema fica em [start, end)
+    TokenType scan() {
 
-        if (isAlpha(ch)) {
-            return identifier();
+        if (!skipWhitespaceAndComments()) {
+            start = current;
+            end = current;
+            return EOF;
         }
 
-        switch (ch) {
-            case '"':
+        start = current;
+        int ch = peek();
+
+        switch (CharClass.of(ch)) {
+            case CharClass.DIGIT:
+                return number();
+            case CharClass.ALPHA:
+                return identifier();
+            case CharClass.SYMBOL:
+                return symbol(CharClass.symbol(ch));
+            case CharClass.QUOTE:
                 return string();
-            case '/':
-                if (peekNext() == '/') {
-                    skipLineComments();
-                    return nextToken();
-                } else if (peekNext() == '*') {
-                    skipBlockComments();
-                    return nextToken();
-                } else {
-                    advance();
-                    return new Token(TokenType.SLASH, "/", line);
-                }
-            case '+':
-                advance();
-                return new Token(TokenType.PLUS, "+", line);
-            case '-':
-                advance();
-                return new Token(TokenType.MINUS, "-", line);
-            case '*':
-                advance();
-                return new Token(TokenType.ASTERISK, "*", line);
-            case '.':
-                advance();
-                return new Token(TokenType.DOT, ".", line);
-            case '&':
-                advance();
-                return new Token(TokenType.AND, "&", line);
-            case '|':
-                advance();
-                return new Token(TokenType.OR, "|", line);
-            case '~':
-                advance();
-                return new Token(TokenType.NOT, "~", line);
-            case '>':
-                advance();
-                return new Token(TokenType.GT, ">", line);
-            case '<':
-                advance();
-                return new Token(TokenType.LT, "<", line);
-            case '=':
-                advance();
-                return new Token(TokenType.EQ, "=", line);
-            case '(':
-                advance();
-                return new Token(TokenType.LPAREN, "(", line);
-            case ')':
-                advance();
-                return new Token(TokenType.RPAREN, ")", line);
-            case '{':
-                advance();
-                return new Token(TokenType.LBRACE, "{", line);
-            case '}':
-                advance();
-                return new Token(TokenType.RBRACE, "}", line);
-            case '[':
-                advance();
-                return new Token(TokenType.LBRACKET, "[", line);
-            case ']':
-                advance();
-                return new Token(TokenType.RBRACKET, "]", line);
-            case ';':
-                advance();
-                return new Token(TokenType.SEMICOLON, ";", line);
-            case ',':
-                advance();
-                return new Token(TokenType.COMMA, ",", line);
-            case 0:
-                return new Token(EOF, "EOF", line);
+            case CharClass.SLASH:
+                return symbol(TokenType.SLASH);
+            case CharClass.END:
+                end = current;
+                return EOF;
             default:
                 advance();
-                return new Token(ILLEGAL, Character.toString(ch), line);
+                end = current;
+                diagnostics.report(source, start, "unexpected character '" + source.lexeme(start, end - start) + "'");
+                return ILLEGAL;
         }
     }
 
-    private Token identifier() {
-        while (isAlphaNumeric(peek()))
-            advance();
+    Source source() {
+        return source;
+    }
 
-        String id = new String(input, start, current - start, StandardCharsets.UTF_8);
-        TokenType type = keywords.get(id);
-        if (type == null)
-            type = IDENT;
-        return new Token(type, id, line);
+    int tokenOffset() {
+        return start;
     }
 
-    private Token number() {
-        while (Character.isDigit(peek())) {
-            advance();
+    int tokenLength() {
+        return end - start;
+    }
+
+    // id no Interner do ultimo IDENT reconhecido
+    int tokenId() {
+        return id;
+    }
+
+    private TokenType identifier() {
+        while (CharClass.isAlphaNumeric(peek()))
+            current++;
+
+        end = current;
+        TokenType type = Keywords.match(input, start, end - start);
+        if (type == IDENT)
+            id = interner.intern(input, start, end - start);
+        return type;
+    }
+
+    private TokenType number() {
+        while (CharClass.of(peek()) == CharClass.DIGIT) {
+            current++;
         }
 
-        String num = new String(input, start, current - start, StandardCharsets.UTF_8);
-        return new Token(NUMBER, num, line);
+        end = current;
+        return NUMBER;
     }
 
-    private Token string() {
+    private TokenType string() {
         advance();
         start = current;
         while (peek() != '"' && peek() != 0) {
             advance();
         }
-        String s = new String(input, start, current - start, StandardCharsets.UTF_8);
-        Token token = new Token(TokenType.STRING, s, line);
+        end = current;
+        if (peek() != '"')
+            diagnostics.report(source, start - 1, "unterminated string");
+        advance();
+        return STRING;
+    }
+
+    private TokenType symbol(TokenType type) {
         advance();
-        return token;
+        end = current;
+        return type;
     }
 
     private void advance() {
-        char ch = peek();
-        if (ch != 0) {
+        if (current < length) {
             current++;
         }
     }
 
-    private boolean isAlpha(char c) {
-        return (c >= 'a' && c <= 'z') ||
-                (c >= 'A' && c <= 'Z') ||
-                c == '_';
-    }
-
-    private boolean isAlphaNumeric(char c) {
-        return isAlpha(c) || Character.isDigit((c));
-    }
-
-    private char peek() {
-        if (current < input.length)
-            return (char) input[current];
+    private int peek() {
+        if (current < length)
+            return input.get(current) & 0xff;
         return 0;
     }
 
-    private char peekNext() {
+    private int peekNext() {
         int next = current + 1;
-        if (next < input.length) {
-            return (char) input[next];
+        if (next < length) {
+            return input.get(next) & 0xff;
         } else {
             return 0;
         }
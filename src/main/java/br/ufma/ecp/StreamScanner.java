@@ -0,0 +1,267 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.token.TokenType.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import br.ufma.ecp.token.CharClass;
+import br.ufma.ecp.token.Interner;
+import br.ufma.ecp.token.Keywords;
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Scanner que le a entrada aos poucos de um canal, usando um buffer de
+ * tamanho fixo. Quando o buffer acaba, o que ja foi consumido e descartado
+ * (so o inicio do token atual e mantido) e o resto e preenchido com mais
+ * bytes do canal. Assim tokens, strings e comentarios podem atravessar a
+ * fronteira do buffer, e a memoria nao depende do tamanho do arquivo.
+ */
+public class StreamScanner implements TokenSource {
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    private final ReadableByteChannel channel;
+    private byte[] buffer;
+    private ByteBuffer window;
+    private int pos;
+    private int limit;
+    private int mark = -1;
+    private boolean eof;
+    private int line = 1;
+    private final Interner interner;
+
+    // posicao absoluta de buffer[0] e do inicio da linha atual, para a coluna dos erros
+    private long base;
+    private long lineStart;
+    private final String name;
+    private final Diagnostics diagnostics;
+
+    public StreamScanner(InputStream input) {
+        this(Channels.newChannel(input));
+    }
+
+    public StreamScanner(ReadableByteChannel channel) {
+        this(channel, DEFAULT_CAPACITY, "", new Diagnostics());
+    }
+
+    public StreamScanner(ReadableByteChannel channel, int capacity) {
+        this(channel, capacity, "", new Diagnostics());
+    }
+
+    public StreamScanner(ReadableByteChannel channel, String name, Diagnostics diagnostics) {
+        this(channel, DEFAULT_CAPACITY, name, diagnostics);
+    }
+
+    public StreamScanner(ReadableByteChannel channel, int capacity, String name, Diagnostics diagnostics) {
+        this(channel, capacity, name, diagnostics, new Interner());
+    }
+
+    public StreamScanner(ReadableByteChannel channel, int capacity, String name, Diagnostics diagnostics,
+            Interner interner) {
+        this.channel = channel;
+        this.interner = interner;
+        this.buffer = new byte[capacity];
+        this.window = ByteBuffer.wrap(buffer);
+        this.name = name;
+        this.diagnostics = diagnostics;
+    }
+
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
+
+    public Interner interner() {
+        return interner;
+    }
+
+    public Token nextToken() {
+        if (!skipWhitespaceAndComments())
+            return new Token(EOF, EOF.value, line, column(pos), -1);
+
+        mark = pos;
+        int ch = peek(0);
+        int column = column(mark); // antes de o buffer andar
+
+        switch (CharClass.of(ch)) {
+            case CharClass.DIGIT:
+                return number(column);
+            case CharClass.ALPHA:
+                return identifier(column);
+            case CharClass.SYMBOL:
+                return symbol(CharClass.symbol(ch), column);
+            case CharClass.QUOTE:
+                return string();
+            case CharClass.SLASH:
+                return symbol(TokenType.SLASH, column);
+            case CharClass.END:
+                return new Token(EOF, EOF.value, line, column, -1);
+            default:
+                pos++;
+                String text = text(mark, pos - mark);
+                diagnostics.report(name, line, column, "unexpected character '" + text + "'");
+                return new Token(ILLEGAL, text, line, column, -1);
+        }
+    }
+
+    // em loop, para muitos comentarios seguidos nao empilharem chamadas;
+    // false se um comentario de bloco nao fecha (o erro ja foi registrado)
+    private boolean skipWhitespaceAndComments() {
+        while (true) {
+            mark = -1;
+            skipWhitespace();
+            if (peek(0) != '/')
+                return true;
+            if (peek(1) == '/') {
+                skipLineComments();
+            } else if (peek(1) == '*') {
+                int column = column(pos);
+                if (!skipBlockComments()) {
+                    diagnostics.report(name, commentLine, column, "unterminated comment");
+                    return false;
+                }
+            } else {
+                return true;
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        for (int ch = peek(0); CharClass.of(ch) == CharClass.SPACE; ch = peek(0)) {
+            if (ch == '\n')
+                newline();
+            pos++;
+        }
+    }
+
+    private void newline() {
+        line++;
+        lineStart = base + pos + 1;
+    }
+
+    private int column(int at) {
+        return (int) (base + at - lineStart) + 1;
+    }
+
+    private void skipLineComments() {
+        for (int ch = peek(0); ch != '\n' && ch != 0; ch = peek(0))
+            pos++;
+    }
+
+    // linha onde comecou o ultimo comentario de bloco, para a mensagem de erro
+    private int commentLine;
+
+    // false se o comentario nao fecha; o erro e registrado por quem chamou
+    private boolean skipBlockComments() {
+        commentLine = line;
+        mark = -1;
+        pos += 2;
+        while (true) {
+            int ch = peek(0);
+            if (ch == 0) // eof, lexical error
+                return false;
+            if (ch == '*' && peek(1) == '/') {
+                pos += 2;
+                return true;
+            }
+            if (ch == '\n')
+                newline();
+            pos++;
+        }
+    }
+
+    private Token identifier(int column) {
+        while (CharClass.isAlphaNumeric(peek(0)))
+            pos++;
+
+        TokenType type = Keywords.match(window, mark, pos - mark);
+        if (type != IDENT)
+            return new Token(type, type.value, line, column, -1);
+        int id = interner.intern(window, mark, pos - mark);
+        return new Token(IDENT, interner.name(id), line, column, id);
+    }
+
+    private Token number(int column) {
+        while (CharClass.of(peek(0)) == CharClass.DIGIT)
+            pos++;
+
+        return new Token(NUMBER, text(mark, pos - mark), line, column, -1);
+    }
+
+    private Token string() {
+        pos++;
+        mark = pos;
+        int startLine = line;
+        int column = column(mark - 1);
+        int ch;
+        while ((ch = peek(0)) != '"' && ch != 0) {
+            if (ch == '\n')
+                newline();
+            pos++;
+        }
+        // como no Scanner, o token comeca depois das aspas
+        Token token = new Token(STRING, text(mark, pos - mark), startLine, column + 1, -1);
+        if (ch == '"')
+            pos++;
+        else
+            diagnostics.report(name, startLine, column, "unterminated string");
+        return token;
+    }
+
+    private Token symbol(TokenType type, int column) {
+        pos++;
+        return new Token(type, type.value, line, column, -1);
+    }
+
+    private String text(int offset, int length) {
+        return new String(buffer, offset, length, StandardCharsets.UTF_8);
+    }
+
+    // byte na posicao pos + k, ou 0 no fim da entrada
+    private int peek(int k) {
+        if (pos + k >= limit && !fill(k))
+            return 0;
+        return buffer[pos + k] & 0xff;
+    }
+
+    private boolean fill(int k) {
+        while (pos + k >= limit) {
+            if (eof)
+                return false;
+
+            int keep = mark >= 0 ? mark : pos;
+            if (keep > 0) {
+                System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+                base += keep;
+                limit -= keep;
+                pos -= keep;
+                if (mark >= 0)
+                    mark -= keep;
+            } else if (limit == buffer.length) {
+                // um unico token maior que o buffer
+                byte[] grown = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, limit);
+                buffer = grown;
+                window = ByteBuffer.wrap(buffer);
+            }
+
+            try {
+                int n = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+                if (n < 0)
+                    eof = true;
+                else
+                    limit += n;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return true;
+    }
+
+}
@@ -1,43 +1,127 @@
 package br.ufma.ecp;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+
+import br.ufma.ecp.VMWriter.Segment;
+import br.ufma.ecp.token.Interner;
 
 public class SymbolTable {
 
     public enum Kind {
-        STATIC, FIELD, ARG, VAR
+        STATIC(Segment.STATIC), FIELD(Segment.THIS), ARG(Segment.ARG), VAR(Segment.LOCAL);
+
+        private final Segment segment;
+
+        private Kind(Segment segment) {
+            this.segment = segment;
+        }
     };
 
-    public static record Symbol(String name, String type, Kind kind, int index) {
+    // segment e index ja sao o endereco na VM: quem gera codigo nao precisa converter o Kind
+    public static record Symbol(String name, String type, Kind kind, int index, int typeId, Segment segment) {
+    }
+
+    // tabela de espalhamento aberta indexada pelo id do Interner
+    private static class Scope {
+        private int[] keys = new int[16];
+        private Symbol[] values = new Symbol[16];
+        private int size;
+        // posicoes ocupadas, para clear so desfazer o que foi definido
+        private int[] used = new int[16];
+
+        Scope() {
+            Arrays.fill(keys, -1);
+        }
+
+        Symbol get(int id) {
+            int mask = keys.length - 1;
+            for (int i = id & mask; keys[i] != -1; i = (i + 1) & mask) {
+                if (keys[i] == id)
+                    return values[i];
+            }
+            return null;
+        }
+
+        void put(int id, Symbol symbol) {
+            if ((size + 1) * 2 > keys.length)
+                grow();
+            int mask = keys.length - 1;
+            int i = id & mask;
+            while (keys[i] != -1)
+                i = (i + 1) & mask;
+            keys[i] = id;
+            values[i] = symbol;
+            used[size++] = i;
+        }
+
+        void clear() {
+            for (int k = 0; k < size; k++) {
+                keys[used[k]] = -1;
+                values[used[k]] = null;
+            }
+            size = 0;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            Symbol[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new Symbol[oldKeys.length * 2];
+            used = new int[oldKeys.length * 2];
+            Arrays.fill(keys, -1);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != -1)
+                    put(oldKeys[i], oldValues[i]);
+            }
+        }
     }
 
-    private Map<String, Symbol> classScope;
-    private Map<String, Symbol> subroutineScope;
-    private Map<Kind, Integer> countVars;
+    private Interner interner;
+    private Scope classScope;
+    private Scope subroutineScope;
+    // quantos de cada Kind, por ordinal
+    private int[] countVars;
 
     public SymbolTable() {
-        classScope = new HashMap<>();
-        subroutineScope = new HashMap<>();
-        countVars = new HashMap<>();
-
-        countVars.put(Kind.ARG, 0);
-        countVars.put(Kind.VAR, 0);
-        countVars.put(Kind.STATIC, 0);
-        countVars.put(Kind.FIELD, 0);
-        
+        this(new Interner());
     }
 
-    public void startSubroutine() {
+    // os nomes sao ids de interner
+    public SymbolTable(Interner interner) {
+        this.interner = interner;
+        classScope = new Scope();
+        subroutineScope = new Scope();
+        countVars = new int[Kind.values().length];
+    }
+
+    // para analisar uma subrotina em paralelo: o escopo da classe e
+    // compartilhado (so leitura), o da subrotina e proprio
+    SymbolTable(SymbolTable classTable) {
+        interner = classTable.interner;
+        classScope = classTable.classScope;
+        subroutineScope = new Scope();
+        countVars = classTable.countVars.clone();
+    }
 
+    // esvazia os dois escopos para outra classe, com ids de interner;
+    // as tabelas mantem o tamanho
+    void reset(Interner interner) {
+        this.interner = interner;
+        classScope.clear();
         subroutineScope.clear();
-        countVars.put(Kind.ARG, 0);
-        countVars.put(Kind.VAR, 0);
+        Arrays.fill(countVars, 0);
+    }
+
+    public void startSubroutine() {
 
+        subroutineScope.clear();
+        countVars[Kind.ARG.ordinal()] = 0;
+        countVars[Kind.VAR.ordinal()] = 0;
 
     }
 
-    private Map<String,Symbol> scope (Kind kind) {
+    private Scope scope (Kind kind) {
         if (kind == Kind.STATIC || kind == Kind.FIELD){
             return classScope;
         } else {
@@ -46,26 +130,39 @@ public class SymbolTable {
     }
 
     void define(String name, String type, Kind kind) {
+        define(interner.intern(name), type, kind);
+    }
+
+    void define(int id, String type, Kind kind) {
+        define(id, interner.intern(type), kind);
+    }
+
+    // nome e tipo ja como ids do Interner
+    void define(int id, int typeId, Kind kind) {
 
-        Map<String,Symbol> scopeTable = scope(kind);
-        if (scopeTable.get(name) != null) throw new RuntimeException ("variable already defined");
+        Scope scopeTable = scope(kind);
+        if (scopeTable.get(id) != null) throw new RuntimeException ("variable already defined");
 
-        Symbol s = new Symbol(name, type, kind, varCount(kind));
-        scopeTable.put(name, s);
+        Symbol s = new Symbol(interner.name(id), interner.name(typeId), kind, varCount(kind), typeId, kind.segment);
+        scopeTable.put(id, s);
 
-         countVars.put(kind, countVars.get(kind) + 1);
+        countVars[kind.ordinal()]++;
 
     }
 
     public Symbol resolve (String name) {
-        Symbol s = subroutineScope.get(name);
+        return resolve(interner.intern(name));
+    }
+
+    public Symbol resolve (int id) {
+        Symbol s = subroutineScope.get(id);
         if (s != null) return s;
-        else return classScope.get(name);
-        
+        else return classScope.get(id);
+
     }
 
     int varCount(Kind kind) {
-        return countVars.get(kind);
+        return countVars[kind.ordinal()];
     }
 
-}
\ No newline at end of file
+}
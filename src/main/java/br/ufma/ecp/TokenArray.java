@@ -0,0 +1,225 @@
+package br.ufma.ecp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import br.ufma.ecp.token.ByteSearch;
+import br.ufma.ecp.token.Source;
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Todos os tokens de um arquivo guardados em vetores paralelos de int
+ * (tipo, offset, tamanho e linha), sem um objeto Token por token.
+ * O Parser percorre esses vetores por indice atraves de cursor().
+ */
+public class TokenArray {
+
+    private static final TokenType[] typeValues = TokenType.values();
+
+    private Source source;
+    private int[] types;
+    private int[] offsets;
+    private int[] lengths;
+    private int[] lines;
+    private int[] ids;
+    private int size;
+
+    TokenArray(Source source, int capacity) {
+        this.source = source;
+        types = new int[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+        ids = new int[capacity];
+    }
+
+    public static TokenArray tokenize(byte[] input) {
+        return tokenize(ByteBuffer.wrap(input));
+    }
+
+    public static TokenArray tokenize(ByteBuffer input) {
+        return tokenize(new Source(input), new Diagnostics());
+    }
+
+    public static TokenArray tokenize(Source source, Diagnostics diagnostics) {
+        var scanner = new Scanner(source, diagnostics);
+        // estimativa: um token a cada ~6 bytes de fonte
+        var tokens = new TokenArray(source, Math.max(16, source.length() / 6));
+        tokens.scan(scanner, 0, 1);
+        return tokens;
+    }
+
+    // esvazia para os tokens de outro fonte, mantendo a capacidade dos vetores
+    void reset(Source source) {
+        this.source = source;
+        size = 0;
+    }
+
+    // acrescenta os tokens do scanner ate o EOF; from e line sao o inicio do trecho
+    void scan(Scanner scanner, int from, int line) {
+        int counted = from;
+        TokenType type;
+        do {
+            type = scanner.scan();
+            int offset = scanner.tokenOffset();
+            line += ByteSearch.countNewlines(source.buffer(), counted, offset);
+            counted = offset;
+            add(type, offset, scanner.tokenLength(), line, type == TokenType.IDENT ? scanner.tokenId() : -1);
+        } while (type != TokenType.EOF);
+    }
+
+    // junta os pedacos em ordem, descartando o EOF de cada um menos o ultimo
+    static TokenArray concat(Source source, TokenArray[] parts) {
+        int total = 0;
+        for (TokenArray part : parts)
+            total += part.size - 1;
+        var tokens = new TokenArray(source, total + 1);
+        for (int p = 0; p < parts.length; p++) {
+            var part = parts[p];
+            int n = p == parts.length - 1 ? part.size : part.size - 1;
+            System.arraycopy(part.types, 0, tokens.types, tokens.size, n);
+            System.arraycopy(part.offsets, 0, tokens.offsets, tokens.size, n);
+            System.arraycopy(part.lengths, 0, tokens.lengths, tokens.size, n);
+            System.arraycopy(part.lines, 0, tokens.lines, tokens.size, n);
+            System.arraycopy(part.ids, 0, tokens.ids, tokens.size, n);
+            tokens.size += n;
+        }
+        return tokens;
+    }
+
+    void add(TokenType type, int offset, int length, int line, int id) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+        types[size] = type.ordinal();
+        offsets[size] = offset;
+        lengths[size] = length;
+        lines[size] = line;
+        ids[size] = id;
+        size++;
+    }
+
+    public Source source() {
+        return source;
+    }
+
+    // numero de tokens, incluindo o EOF final
+    public int size() {
+        return size;
+    }
+
+    public TokenType type(int i) {
+        return typeValues[types[i]];
+    }
+
+    public int offset(int i) {
+        return offsets[i];
+    }
+
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    public int line(int i) {
+        return lines[i];
+    }
+
+    // id no Interner, para IDENT; -1 nos demais
+    public int id(int i) {
+        return ids[i];
+    }
+
+    public String lexeme(int i) {
+        TokenType type = typeValues[types[i]];
+        if (type.value != null)
+            return type.value;
+        if (ids[i] >= 0)
+            return source.interner().name(ids[i]);
+        return source.lexeme(offsets[i], lengths[i]);
+    }
+
+    public int intValue(int i) {
+        return source.intValue(offsets[i], lengths[i]);
+    }
+
+    public Token token(int i) {
+        return new Token(typeValues[types[i]], source, offsets[i], lengths[i], lines[i], ids[i]);
+    }
+
+    public Cursor cursor() {
+        return new Cursor(0);
+    }
+
+    // cursor cujo proximo token (peek) e o de indice first
+    Cursor cursor(int first) {
+        return new Cursor(first);
+    }
+
+    // cursor por indice; o token atual e o de indice pos, o proximo o de pos + 1
+    public class Cursor implements TokenCursor {
+        private int pos;
+
+        Cursor(int first) {
+            pos = first - 1;
+        }
+
+        public int position() {
+            return pos;
+        }
+
+        // volta (ou avanca) para um ponto ja visto, para reanalisar a partir dali
+        public void seek(int position) {
+            pos = position;
+        }
+
+        // tipo do k-esimo token depois do atual (k = 1 e o peek)
+        public TokenType peekType(int k) {
+            int i = Math.min(pos + k, size - 1);
+            return typeValues[types[i]];
+        }
+
+        public void advance() {
+            if (pos < size - 1)
+                pos++;
+        }
+
+        public TokenType currentType() {
+            return typeValues[types[pos]];
+        }
+
+        public TokenType peekType() {
+            return typeValues[types[pos + 1 < size ? pos + 1 : size - 1]];
+        }
+
+        public String currentLexeme() {
+            return lexeme(pos);
+        }
+
+        public String peekLexeme() {
+            return lexeme(pos + 1 < size ? pos + 1 : size - 1);
+        }
+
+        public int currentInt() {
+            return intValue(pos);
+        }
+
+        public int currentId() {
+            return ids[pos];
+        }
+
+        public Token currentToken() {
+            return token(pos);
+        }
+
+        public Token peekToken() {
+            return token(pos + 1 < size ? pos + 1 : size - 1);
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package br.ufma.ecp;
+
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Visao do Parser sobre a sequencia de tokens: o token atual e o proximo.
+ * Pode vir de um TokenSource (um token por vez) ou de um TokenArray
+ * ja montado, percorrido por indice.
+ */
+interface TokenCursor {
+
+    void advance();
+
+    TokenType currentType();
+
+    TokenType peekType();
+
+    String currentLexeme();
+
+    String peekLexeme();
+
+    int currentInt();
+
+    // id no Interner do token atual, que deve ser um IDENT
+    int currentId();
+
+    Token currentToken();
+
+    Token peekToken();
+
+    // cursor que puxa os tokens de um TokenSource
+    static TokenCursor of(TokenSource source) {
+        return new TokenCursor() {
+            private Token current;
+            private Token peek = source.nextToken();
+
+            public void advance() {
+                current = peek;
+                peek = source.nextToken();
+            }
+
+            public TokenType currentType() {
+                return current.type;
+            }
+
+            public TokenType peekType() {
+                return peek.type;
+            }
+
+            public String currentLexeme() {
+                return current.lexeme();
+            }
+
+            public String peekLexeme() {
+                return peek.lexeme();
+            }
+
+            public int currentInt() {
+                return current.intValue();
+            }
+
+            public int currentId() {
+                return current.id;
+            }
+
+            public Token currentToken() {
+                return current;
+            }
+
+            public Token peekToken() {
+                return peek;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,14 @@
+package br.ufma.ecp;
+
+import br.ufma.ecp.token.Interner;
+import br.ufma.ecp.token.Token;
+
+// qualquer coisa que entregue tokens em sequencia para o Parser
+public interface TokenSource {
+
+    Token nextToken();
+
+    // a tabela dos ids dos IDENT entregues
+    Interner interner();
+
+}
@@ -0,0 +1,193 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import br.ufma.ecp.token.Source;
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Escreve o XML so dos tokens (<tokens> ... </tokens>) direto em bytes,
+ * sem criar Token nem String: as tags de cada TokenType e o texto dos
+ * simbolos e palavras-chave ja ficam prontos em bytes, e o lexema dos
+ * demais e copiado do fonte escapando < > " & por uma tabela.
+ * O formato e o de Token.toString, uma linha por token terminada em \r\n.
+ */
+public class TokenXmlWriter {
+
+    private static final TokenType[] typeValues = TokenType.values();
+
+    // por ordinal de TokenType: "<tag> ", o texto fixo (se houver) e " </tag>\r\n"
+    private static final byte[][] OPEN = new byte[typeValues.length][];
+    private static final byte[][] FIXED = new byte[typeValues.length][];
+    private static final byte[][] CLOSE = new byte[typeValues.length][];
+
+    // por byte: o que escrever no lugar dele, ou null para copiar
+    private static final byte[][] ESCAPES = new byte[256][];
+
+    private static final byte[] START = bytes("<tokens>\r\n");
+    private static final byte[] END = bytes("</tokens>\r\n");
+
+    static {
+        ESCAPES['<'] = bytes("&lt;");
+        ESCAPES['>'] = bytes("&gt;");
+        ESCAPES['"'] = bytes("&quot;");
+        ESCAPES['&'] = bytes("&amp;");
+
+        for (TokenType type : typeValues) {
+            String tag;
+            if (TokenType.isKeyword(type))
+                tag = "keyword";
+            else if (type.compareTo(TokenType.EQ) <= 0)
+                tag = "symbol";
+            else if (type == TokenType.NUMBER)
+                tag = "integerConstant";
+            else if (type == TokenType.STRING)
+                tag = "stringConstant";
+            else if (type == TokenType.IDENT)
+                tag = "identifier";
+            else
+                tag = type.name();
+
+            OPEN[type.ordinal()] = bytes("<" + tag + "> ");
+            CLOSE[type.ordinal()] = bytes(" </" + tag + ">\r\n");
+            if (type.value != null)
+                FIXED[type.ordinal()] = escape(bytes(type.value));
+        }
+    }
+
+    private final OutputStream out;
+    private byte[] buffer = new byte[64 * 1024];
+    private int size;
+
+    public TokenXmlWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    // analisa o fonte e escreve cada token assim que reconhecido; erros lexicos vao para diagnostics
+    public void write(Source source, Diagnostics diagnostics) throws IOException {
+        var scanner = new Scanner(source, diagnostics);
+        var input = source.buffer();
+        put(START);
+        for (TokenType type = scanner.scan(); type != TokenType.EOF; type = scanner.scan())
+            writeToken(type, input, scanner.tokenOffset(), scanner.tokenLength());
+        put(END);
+        flush();
+    }
+
+    // tokens ja separados
+    public void write(TokenArray tokens) throws IOException {
+        var input = tokens.source().buffer();
+        put(START);
+        for (int i = 0; i < tokens.size() && tokens.type(i) != TokenType.EOF; i++)
+            writeToken(tokens.type(i), input, tokens.offset(i), tokens.length(i));
+        put(END);
+        flush();
+    }
+
+    // le do canal aos poucos, para entradas que nao cabem na memoria (a entrada padrao)
+    public void write(StreamScanner scanner) throws IOException {
+        put(START);
+        for (Token token = scanner.nextToken(); token.type != TokenType.EOF; token = scanner.nextToken())
+            writeToken(token.type, token.lexeme());
+        put(END);
+        flush();
+    }
+
+    public void flush() throws IOException {
+        out.write(buffer, 0, size);
+        size = 0;
+        out.flush();
+    }
+
+    private void writeToken(TokenType type, ByteBuffer input, int offset, int length) throws IOException {
+        int t = type.ordinal();
+        byte[] fixed = FIXED[t];
+        // cada byte do lexema vira no maximo 6 ("&quot;")
+        reserve(OPEN[t].length + (fixed != null ? fixed.length : 6 * length) + CLOSE[t].length);
+
+        put(OPEN[t]);
+        if (fixed != null) {
+            put(fixed);
+        } else if (type == TokenType.STRING) {
+            for (int i = offset; i < offset + length; i++) {
+                byte b = input.get(i);
+                byte[] escape = ESCAPES[b & 0xff];
+                if (escape == null)
+                    buffer[size++] = b;
+                else
+                    put(escape);
+            }
+        } else {
+            // identificadores e numeros nao tem o que escapar
+            input.get(offset, buffer, size, length);
+            size += length;
+        }
+        put(CLOSE[t]);
+    }
+
+    // o mesmo, com o lexema ja em String (StreamScanner)
+    private void writeToken(TokenType type, String lexeme) throws IOException {
+        int t = type.ordinal();
+        if (FIXED[t] != null) {
+            reserve(OPEN[t].length + FIXED[t].length + CLOSE[t].length);
+            put(OPEN[t]);
+            put(FIXED[t]);
+            put(CLOSE[t]);
+            return;
+        }
+        put(OPEN[t]);
+        for (int i = 0; i < lexeme.length(); i++) {
+            char c = lexeme.charAt(i);
+            if (c >= 0x80) { // raro: o resto vai em UTF-8
+                for (byte b : lexeme.substring(i).getBytes(StandardCharsets.UTF_8))
+                    putEscaped(b);
+                break;
+            }
+            putEscaped((byte) c);
+        }
+        put(CLOSE[t]);
+    }
+
+    private void putEscaped(byte b) throws IOException {
+        byte[] escape = ESCAPES[b & 0xff];
+        if (escape != null) {
+            put(escape);
+        } else {
+            reserve(1);
+            buffer[size++] = b;
+        }
+    }
+
+    private void reserve(int n) throws IOException {
+        if (size + n <= buffer.length)
+            return;
+        out.write(buffer, 0, size);
+        size = 0;
+        if (n > buffer.length)
+            buffer = new byte[n];
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        reserve(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private static byte[] escape(byte[] value) {
+        var sb = new StringBuilder();
+        for (byte b : value) {
+            byte[] escape = ESCAPES[b & 0xff];
+            sb.append(escape != null ? new String(escape, StandardCharsets.US_ASCII) : (char) b);
+        }
+        return bytes(sb.toString());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,404 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.token.TokenType.*;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+import br.ufma.ecp.Ast.NodeKind;
+import br.ufma.ecp.SymbolTable.Kind;
+import br.ufma.ecp.SymbolTable.Symbol;
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+import br.ufma.ecp.token.Interner;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Gera o codigo VM a partir de uma Ast, percorrendo a arvore na mesma
+ * ordem em que o Parser emite: a saida e identica byte a byte.
+ */
+public class VMGenerator {
+    private static class GenerateError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final Kind[] kindValues = Kind.values();
+    private static final TokenType[] typeValues = TokenType.values();
+
+    private final Ast ast;
+    private final TokenArray tokens;
+    private final Interner interner;
+    private final SymbolTable symTable;
+    private VMWriter vmWriter = new VMWriter();
+    private final Diagnostics diagnostics;
+    private int classId;
+
+    private int ifLabelNum = 0;
+    private int whileLabelNum = 0;
+
+    public VMGenerator(Ast ast) {
+        this(ast, new Diagnostics());
+    }
+
+    public VMGenerator(Ast ast, Diagnostics diagnostics) {
+        this.ast = ast;
+        this.tokens = ast.tokens();
+        this.interner = tokens.source().interner();
+        this.symTable = new SymbolTable(interner);
+        this.diagnostics = diagnostics;
+    }
+
+    // para no primeiro erro (variavel nao declarada), que fica em diagnostics
+    public void generate() {
+        int root = ast.root();
+        classId = tokens.id(ast.token(root));
+        try {
+            for (int n = ast.firstChild(root); n != Ast.NONE; n = ast.nextSibling(n)) {
+                if (ast.kind(n) == NodeKind.VAR_DEC)
+                    define(n);
+                else
+                    generateSubroutine(n);
+            }
+        } catch (GenerateError e) {
+            // ja registrado
+        }
+    }
+
+    // cada subrotina e escrita em out assim que termina
+    public void setOutput(Writer out) {
+        vmWriter = new VMWriter(out);
+    }
+
+    public void setOutput(OutputStream out) {
+        vmWriter = new VMWriter(out);
+    }
+
+    public String VMOutput() {
+        return vmWriter.vmOutput();
+    }
+
+    // define todos os nomes de um VAR_DEC
+    private void define(int node) {
+        Kind kind = kindValues[ast.value(node)];
+        int type = ast.token(node);
+        int typeId = tokens.type(type) == IDENT ? tokens.id(type) : interner.intern(tokens.lexeme(type));
+        for (int n = ast.firstChild(node); n != Ast.NONE; n = ast.nextSibling(n)) {
+            try {
+                symTable.define(tokens.id(ast.token(n)), typeId, kind);
+            } catch (RuntimeException e) {
+                throw error(ast.token(n), e.getMessage());
+            }
+        }
+    }
+
+    private void generateSubroutine(int node) {
+        ifLabelNum = 0;
+        whileLabelNum = 0;
+        symTable.startSubroutine();
+
+        var subroutineType = typeValues[ast.value(node)];
+        if (subroutineType == METHOD)
+            symTable.define(Interner.THIS_ID, classId, Kind.ARG);
+
+        int n = ast.firstChild(node);
+        for (; ast.kind(n) == NodeKind.VAR_DEC; n = ast.nextSibling(n))
+            define(n);
+
+        vmWriter.writeFunction(interner.qualified(classId, tokens.id(ast.token(node))), symTable.varCount(Kind.VAR));
+
+        if (subroutineType == CONSTRUCTOR) {
+            vmWriter.writePush(Segment.CONST, symTable.varCount(Kind.FIELD));
+            vmWriter.writeCall("Memory.alloc", 1);
+            vmWriter.writePop(Segment.POINTER, 0);
+        }
+
+        if (subroutineType == METHOD) {
+            vmWriter.writePush(Segment.ARG, 0);
+            vmWriter.writePop(Segment.POINTER, 0);
+        }
+
+        generateStatements(n);
+        vmWriter.flush();
+    }
+
+    private void generateStatements(int node) {
+        for (int n = ast.firstChild(node); n != Ast.NONE; n = ast.nextSibling(n)) {
+            switch (ast.kind(n)) {
+                case LET:
+                    generateLet(n);
+                    break;
+                case IF:
+                    generateIf(n);
+                    break;
+                case WHILE:
+                    generateWhile(n);
+                    break;
+                case DO:
+                    generateExpression(ast.firstChild(n));
+                    vmWriter.writePop(Segment.TEMP, 0);
+                    break;
+                case RETURN:
+                    int value = ast.firstChild(n);
+                    if (value != Ast.NONE)
+                        generateExpression(value);
+                    else
+                        vmWriter.writePush(Segment.CONST, 0);
+                    vmWriter.writeReturn();
+                    break;
+                default:
+                    throw new IllegalStateException("unexpected node " + ast.kind(n));
+            }
+        }
+    }
+
+    private void generateLet(int node) {
+        var symbol = resolve(ast.token(node));
+        int expression = ast.firstChild(node);
+
+        if (ast.value(node) == 1) { // array
+            generateExpression(expression);
+            vmWriter.writePush(symbol.segment(), symbol.index());
+            vmWriter.writeArithmetic(Command.ADD);
+
+            generateExpression(ast.nextSibling(expression));
+            vmWriter.writePop(Segment.TEMP, 0);
+            vmWriter.writePop(Segment.POINTER, 1);
+            vmWriter.writePush(Segment.TEMP, 0);
+            vmWriter.writePop(Segment.THAT, 0);
+        } else {
+            generateExpression(expression);
+            vmWriter.writePop(symbol.segment(), symbol.index());
+        }
+    }
+
+    private void generateIf(int node) {
+        var label = ifLabelNum++;
+
+        int condition = ast.firstChild(node);
+        int then = ast.nextSibling(condition);
+        int otherwise = ast.nextSibling(then);
+
+        generateExpression(condition);
+        vmWriter.writeIf("IF_TRUE", label);
+        vmWriter.writeGoto("IF_FALSE", label);
+        vmWriter.writeLabel("IF_TRUE", label);
+        generateStatements(then);
+        if (otherwise != Ast.NONE)
+            vmWriter.writeGoto("IF_END", label);
+        vmWriter.writeLabel("IF_FALSE", label);
+        if (otherwise != Ast.NONE) {
+            generateStatements(otherwise);
+            vmWriter.writeLabel("IF_END", label);
+        }
+    }
+
+    private void generateWhile(int node) {
+        var label = whileLabelNum++;
+
+        int condition = ast.firstChild(node);
+
+        vmWriter.writeLabel("WHILE_EXP", label);
+        generateExpression(condition);
+        vmWriter.writeArithmetic(Command.NOT);
+        vmWriter.writeIf("WHILE_END", label);
+        generateStatements(ast.nextSibling(condition));
+        vmWriter.writeGoto("WHILE_EXP", label);
+        vmWriter.writeLabel("WHILE_END", label);
+    }
+
+    /*
+     * Expressoes sao percorridas sem recursao, numa pilha de quadros: cada
+     * quadro e um no com filhos (ARRAY, CALL, UNARY, BINARY) e o proximo
+     * filho a gerar. O que vem antes dos filhos e gerado ao empilhar, o que
+     * vem depois ao desempilhar; a ordem da saida e a mesma do Parser.
+     */
+    private static final Segment[] segmentValues = Segment.values();
+
+    private int[] frameNode = new int[32];
+    private int[] frameNext = new int[32];
+    private int[] frameA = new int[32]; // ARRAY: segmento (ordinal); CALL: argumentos
+    private int[] frameB = new int[32]; // ARRAY: indice
+    private String[] frameName = new String[32]; // CALL: funcao
+    private int frames = 0;
+
+    private void pushFrame(int node, int a, int b, String name) {
+        if (frames == frameNode.length) {
+            int capacity = frames * 2;
+            frameNode = Arrays.copyOf(frameNode, capacity);
+            frameNext = Arrays.copyOf(frameNext, capacity);
+            frameA = Arrays.copyOf(frameA, capacity);
+            frameB = Arrays.copyOf(frameB, capacity);
+            frameName = Arrays.copyOf(frameName, capacity);
+        }
+        frameNode[frames] = node;
+        frameNext[frames] = ast.firstChild(node);
+        frameA[frames] = a;
+        frameB[frames] = b;
+        frameName[frames] = name;
+        frames++;
+    }
+
+    private void generateExpression(int node) {
+        int base = frames;
+        try {
+            enter(node);
+            while (frames > base) {
+                int top = frames - 1;
+                int child = frameNext[top];
+                if (child != Ast.NONE) {
+                    frameNext[top] = ast.nextSibling(child);
+                    if (ast.kind(frameNode[top]) == NodeKind.CALL)
+                        frameA[top]++;
+                    enter(child);
+                } else {
+                    frames--;
+                    leave(top);
+                }
+            }
+        } finally {
+            frames = base; // depois de um erro os quadros abertos sao descartados
+        }
+    }
+
+    // gera as folhas inteiras; dos outros nos, o que vem antes dos filhos
+    private void enter(int node) {
+        int token = ast.token(node);
+        switch (ast.kind(node)) {
+            case INT:
+                vmWriter.writePush(Segment.CONST, tokens.intValue(token));
+                break;
+            case STRING:
+                var strValue = tokens.lexeme(token);
+                vmWriter.writePush(Segment.CONST, strValue.length());
+                vmWriter.writeCall("String.new", 1);
+                for (int i = 0; i < strValue.length(); i++) {
+                    vmWriter.writePush(Segment.CONST, strValue.charAt(i));
+                    vmWriter.writeCall("String.appendChar", 2);
+                }
+                break;
+            case KEYWORD:
+                if (tokens.type(token) == THIS) {
+                    vmWriter.writePush(Segment.POINTER, 0);
+                } else {
+                    vmWriter.writePush(Segment.CONST, 0);
+                    if (tokens.type(token) == TRUE)
+                        vmWriter.writeArithmetic(Command.NOT);
+                }
+                break;
+            case VARIABLE: {
+                var sym = resolve(token);
+                vmWriter.writePush(sym.segment(), sym.index());
+                break;
+            }
+            case ARRAY: {
+                var sym = resolve(token);
+                pushFrame(node, sym.segment().ordinal(), sym.index(), null);
+                break;
+            }
+            case CALL:
+                beginCall(node);
+                break;
+            case UNARY:
+            case BINARY:
+                pushFrame(node, 0, 0, null);
+                break;
+            default:
+                throw new IllegalStateException("unexpected node " + ast.kind(node));
+        }
+    }
+
+    // o que vem depois dos filhos
+    private void leave(int top) {
+        int node = frameNode[top];
+        int token = ast.token(node);
+        switch (ast.kind(node)) {
+            case ARRAY:
+                vmWriter.writePush(segmentValues[frameA[top]], frameB[top]);
+                vmWriter.writeArithmetic(Command.ADD);
+                vmWriter.writePop(Segment.POINTER, 1);
+                vmWriter.writePush(Segment.THAT, 0);
+                break;
+            case CALL:
+                vmWriter.writeCall(frameName[top], frameA[top]);
+                frameName[top] = null;
+                break;
+            case UNARY:
+                vmWriter.writeArithmetic(tokens.type(token) == MINUS ? Command.NEG : Command.NOT);
+                break;
+            default: // BINARY
+                compileOperator(tokens.type(token));
+                break;
+        }
+    }
+
+    // empilha a chamada com o nome da funcao e o objeto (se houver) ja contado
+    private void beginCall(int node) {
+        int ident = tokens.id(ast.token(node));
+        int second = ast.value(node);
+        var symbol = symTable.resolve(ident);
+        String functionName;
+        int nArgs = 0;
+
+        if (second == Ast.NONE) {
+            functionName = interner.qualified(classId, ident);
+            vmWriter.writePush(Segment.POINTER, 0);
+            nArgs = 1;
+        } else if (symbol != null) {
+            functionName = interner.qualified(symbol.typeId(), tokens.id(second));
+            vmWriter.writePush(symbol.segment(), symbol.index());
+            nArgs = 1;
+        } else {
+            functionName = interner.qualified(ident, tokens.id(second));
+        }
+        pushFrame(node, nArgs, 0, functionName);
+    }
+
+    private Symbol resolve(int token) {
+        Symbol sym = symTable.resolve(tokens.id(token));
+        if (sym == null)
+            throw error(token, "Undefined variable " + tokens.lexeme(token));
+        return sym;
+    }
+
+    private GenerateError error(int token, String message) {
+        var t = tokens.token(token);
+        diagnostics.report(tokens.source().name(), t.line(), t.column(), "Error at '" + t.lexeme() + "': " + message);
+        return new GenerateError();
+    }
+
+    private void compileOperator(TokenType type) {
+        switch (type) {
+            case ASTERISK:
+                vmWriter.writeCall("Math.multiply", 2);
+                break;
+            case SLASH:
+                vmWriter.writeCall("Math.divide", 2);
+                break;
+            case PLUS:
+                vmWriter.writeArithmetic(Command.ADD);
+                break;
+            case MINUS:
+                vmWriter.writeArithmetic(Command.SUB);
+                break;
+            case LT:
+                vmWriter.writeArithmetic(Command.LT);
+                break;
+            case GT:
+                vmWriter.writeArithmetic(Command.GT);
+                break;
+            case EQ:
+                vmWriter.writeArithmetic(Command.EQ);
+                break;
+            case AND:
+                vmWriter.writeArithmetic(Command.AND);
+                break;
+            case OR:
+                vmWriter.writeArithmetic(Command.OR);
+                break;
+            default:
+                throw new IllegalStateException("unexpected operator " + type);
+        }
+    }
+
+}
@@ -1,7 +1,37 @@
 package br.ufma.ecp;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Gera o texto VM direto em bytes: comandos e segmentos ja ficam prontos
+ * em bytes (por exemplo "push constant "), numeros sao escritos digito a
+ * digito e nomes copiados caractere a caractere. Nada e alocado por
+ * instrucao; o buffer so cresce.
+ */
 public class VMWriter {
-    private StringBuilder vmOutput = new StringBuilder();
+    private byte[] buffer = new byte[4096];
+    private int size;
+
+    // se houver um destino, flush() manda para ele o que foi gerado ate aqui
+    private Writer out;
+    private OutputStream stream;
+
+    public VMWriter() {
+        this((Writer) null);
+    }
+
+    public VMWriter(Writer out) {
+        this.out = out;
+    }
+
+    public VMWriter(OutputStream out) {
+        this.stream = out;
+    }
 
     enum Segment {
         CONST("constant"),
@@ -15,9 +45,13 @@ public class VMWriter {
 
         private Segment(String value) {
             this.value = value;
+            this.push = bytes("push " + value + " ");
+            this.pop = bytes("pop " + value + " ");
         }
 
         public String value;
+        private final byte[] push;
+        private final byte[] pop;
     };
 
     enum Command {
@@ -29,48 +63,198 @@ public class VMWriter {
         LT,
         AND,
         OR,
-        NOT
+        NOT;
+
+        private final byte[] line = bytes(name().toLowerCase() + "\n");
     };
 
+    private static final byte[] LABEL = bytes("label ");
+    private static final byte[] GOTO = bytes("goto ");
+    private static final byte[] IF_GOTO = bytes("if-goto ");
+    private static final byte[] CALL = bytes("call ");
+    private static final byte[] FUNCTION = bytes("function ");
+    private static final byte[] RETURN = bytes("return\n");
+
+    // o que ainda nao foi enviado para o destino (tudo, se nao houver destino)
     public String vmOutput() {
-        return vmOutput.toString();
+        return new String(buffer, 0, size, StandardCharsets.UTF_8);
+    }
+
+    // codigo ja pronto, gerado por outro VMWriter
+    void append(VMWriter other) {
+        ensure(other.size);
+        System.arraycopy(other.buffer, 0, buffer, size, other.size);
+        size += other.size;
+    }
+
+    // posicao atual, para descartar o que vier depois com reset
+    int mark() {
+        return size;
+    }
+
+    void reset(int mark) {
+        size = mark;
+    }
+
+    // descarta o que foi gerado e passa a escrever em out, mantendo a capacidade do buffer
+    void reset(Writer out) {
+        this.out = out;
+        this.stream = null;
+        size = 0;
+    }
+
+    void reset(OutputStream out) {
+        this.out = null;
+        this.stream = out;
+        size = 0;
+    }
+
+    void flush() {
+        if (out == null && stream == null)
+            return;
+        try {
+            if (stream != null)
+                stream.write(buffer, 0, size);
+            else
+                out.write(vmOutput());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        size = 0;
     }
 
     void writePush(Segment segment, int index) {
-        vmOutput.append(String.format("push %s %d\n", segment.value, index));
+        put(segment.push);
+        putInt(index);
+        putNewline();
     }
 
     void writePop(Segment segment, int index) {
-
-        vmOutput.append(String.format("pop %s %d\n", segment.value, index));
+        put(segment.pop);
+        putInt(index);
+        putNewline();
     }
 
     void writeArithmetic(Command command) {
-        vmOutput.append(String.format("%s\n", command.name().toLowerCase()));
+        put(command.line);
     }
 
     void writeLabel(String label) {
-        vmOutput.append(String.format("label %s\n", label));
+        put(LABEL);
+        putString(label);
+        putNewline();
+    }
+
+    // label numerado (IF_TRUE0, WHILE_EXP3...), sem montar o String
+    void writeLabel(String prefix, int number) {
+        put(LABEL);
+        putString(prefix);
+        putInt(number);
+        putNewline();
     }
 
     void writeGoto(String label) {
-        vmOutput.append(String.format("goto %s\n", label));
+        put(GOTO);
+        putString(label);
+        putNewline();
+    }
+
+    void writeGoto(String prefix, int number) {
+        put(GOTO);
+        putString(prefix);
+        putInt(number);
+        putNewline();
     }
 
     void writeIf(String label) {
-        vmOutput.append(String.format("if-goto %s\n", label));
+        put(IF_GOTO);
+        putString(label);
+        putNewline();
+    }
+
+    void writeIf(String prefix, int number) {
+        put(IF_GOTO);
+        putString(prefix);
+        putInt(number);
+        putNewline();
     }
 
     void writeCall(String name, int nArgs) {
-        vmOutput.append(String.format("call %s %d\n", name, nArgs));
+        put(CALL);
+        putString(name);
+        putSpace();
+        putInt(nArgs);
+        putNewline();
     }
 
     void writeFunction(String name, int nLocals) {
-        vmOutput.append(String.format("function %s %d\n", name, nLocals));
+        put(FUNCTION);
+        putString(name);
+        putSpace();
+        putInt(nLocals);
+        putNewline();
     }
 
     void writeReturn() {
-        vmOutput.append(String.format("return\n"));
+        put(RETURN);
+    }
+
+    private void ensure(int n) {
+        if (size + n > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + n));
+    }
+
+    private void put(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    // nomes do Jack sao ASCII; o resto (se aparecer) vai em UTF-8
+    private void putString(String s) {
+        int length = s.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                put(s.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            buffer[size++] = (byte) c;
+        }
+    }
+
+    // digito a digito, do fim para o comeco
+    private void putInt(int n) {
+        long value = n;
+        if (value < 0) {
+            ensure(1);
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10)
+            digits++;
+        ensure(digits);
+        for (int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    private void putSpace() {
+        ensure(1);
+        buffer[size++] = ' ';
+    }
+
+    private void putNewline() {
+        ensure(1);
+        buffer[size++] = '\n';
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
     }
 
-}
\ No newline at end of file
+}
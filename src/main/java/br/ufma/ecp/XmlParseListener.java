@@ -0,0 +1,29 @@
+package br.ufma.ecp;
+
+import br.ufma.ecp.token.Token;
+
+// monta o XML da arvore sintatica, no mesmo formato de antes
+public class XmlParseListener implements ParseListener {
+
+    private final StringBuilder xmlOutput = new StringBuilder();
+
+    @Override
+    public void startNonTerminal(String name) {
+        xmlOutput.append('<').append(name).append(">\r\n");
+    }
+
+    @Override
+    public void endNonTerminal(String name) {
+        xmlOutput.append("</").append(name).append(">\r\n");
+    }
+
+    @Override
+    public void terminal(Token token) {
+        xmlOutput.append(token).append("\r\n");
+    }
+
+    public String output() {
+        return xmlOutput.toString();
+    }
+
+}
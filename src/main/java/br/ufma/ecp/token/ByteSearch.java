@@ -0,0 +1,120 @@
+package br.ufma.ecp.token;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Buscas usadas para pular espacos e comentarios, oito bytes por vez.
+ * Cada passo le um long do buffer e marca, com o bit alto de cada byte,
+ * os bytes iguais a um valor (tecnica "SWAR"); o primeiro byte marcado
+ * e achado com numberOfLeadingZeros. O final do trecho, com menos de
+ * oito bytes, e percorrido byte a byte.
+ *
+ * Os buffers sao lidos em BIG_ENDIAN (o padrao de ByteBuffer), entao o
+ * primeiro byte da memoria e o mais significativo do long.
+ */
+public final class ByteSearch {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH = 0x8080808080808080L;
+
+    private static final long SPACE = ' ' * ONES;
+    private static final long TAB = '\t' * ONES;
+    private static final long CR = '\r' * ONES;
+    private static final long NEWLINE = '\n' * ONES;
+    private static final long STAR = '*' * ONES;
+
+    private ByteSearch() {
+    }
+
+    // bit alto ligado nos bytes de word iguais ao byte repetido em pattern
+    private static long equal(long word, long pattern) {
+        long x = word ^ pattern;
+        return ~(((x & LOW7) + LOW7) | x | LOW7);
+    }
+
+    private static long zero(long word) {
+        return ~(((word & LOW7) + LOW7) | word | LOW7);
+    }
+
+    private static int first(long mask) {
+        return Long.numberOfLeadingZeros(mask) >>> 3;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    // primeira posicao em [from, limit) que nao e espaco, tab, \r ou \n
+    public static int skipSpaces(ByteBuffer input, int from, int limit) {
+        // caso mais comum entre tokens: nenhum espaco ou um so
+        if (from >= limit || !isSpace(input.get(from)))
+            return from;
+        int i = from + 1;
+        if (i >= limit || !isSpace(input.get(i)))
+            return i;
+        for (; i + 8 <= limit; i += 8) {
+            long word = input.getLong(i);
+            long spaces = equal(word, SPACE) | equal(word, TAB) | equal(word, CR) | equal(word, NEWLINE);
+            long others = ~spaces & HIGH;
+            if (others != 0)
+                return i + first(others);
+        }
+        while (i < limit && isSpace(input.get(i)))
+            i++;
+        return i;
+    }
+
+    // primeira posicao com \n ou byte 0 (fim da entrada), ou limit
+    public static int indexOfNewline(ByteBuffer input, int from, int limit) {
+        int i = from;
+        for (; i + 8 <= limit; i += 8) {
+            long word = input.getLong(i);
+            long found = equal(word, NEWLINE) | zero(word);
+            if (found != 0)
+                return i + first(found);
+        }
+        while (i < limit && input.get(i) != '\n' && input.get(i) != 0)
+            i++;
+        return i;
+    }
+
+    // posicao do "*/" que fecha um comentario, ou de um byte 0, ou limit
+    public static int indexOfCommentEnd(ByteBuffer input, int from, int limit) {
+        int i = from;
+        while (i + 8 <= limit) {
+            long word = input.getLong(i);
+            long found = equal(word, STAR) | zero(word);
+            if (found == 0) {
+                i += 8;
+                continue;
+            }
+            int pos = i + first(found);
+            byte b = input.get(pos);
+            if (b == 0 || (pos + 1 < limit && input.get(pos + 1) == '/'))
+                return pos;
+            i = pos + 1;
+        }
+        for (; i < limit; i++) {
+            byte b = input.get(i);
+            if (b == 0 || (b == '*' && i + 1 < limit && input.get(i + 1) == '/'))
+                return i;
+        }
+        return limit;
+    }
+
+    // quantos \n existem em [from, to)
+    public static int countNewlines(ByteBuffer input, int from, int to) {
+        int count = 0;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            count += Long.bitCount(equal(input.getLong(i), NEWLINE));
+        }
+        for (; i < to; i++) {
+            if (input.get(i) == '\n')
+                count++;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,64 @@
+package br.ufma.ecp.token;
+
+/*
+ * Tabela de classificacao dos bytes da entrada usada pelo Scanner.
+ * Cada byte tem uma classe, e os simbolos de um caractere ja tem o
+ * TokenType correspondente, de modo que basta um acesso a tabela.
+ */
+public final class CharClass {
+
+    public static final byte OTHER = 0;
+    public static final byte END = 1;
+    public static final byte SPACE = 2;
+    public static final byte DIGIT = 3;
+    public static final byte ALPHA = 4;
+    public static final byte SYMBOL = 5;
+    public static final byte QUOTE = 6;
+    public static final byte SLASH = 7;
+
+    private static final byte[] classes = new byte[256];
+    private static final TokenType[] symbols = new TokenType[256];
+
+    static {
+        classes[0] = END;
+        classes[' '] = SPACE;
+        classes['\t'] = SPACE;
+        classes['\r'] = SPACE;
+        classes['\n'] = SPACE;
+        for (int c = '0'; c <= '9'; c++)
+            classes[c] = DIGIT;
+        for (int c = 'a'; c <= 'z'; c++)
+            classes[c] = ALPHA;
+        for (int c = 'A'; c <= 'Z'; c++)
+            classes[c] = ALPHA;
+        classes['_'] = ALPHA;
+        classes['"'] = QUOTE;
+        classes['/'] = SLASH;
+
+        for (TokenType type : TokenType.values()) {
+            if (type.value != null && type.value.length() == 1 && type != TokenType.SLASH) {
+                char c = type.value.charAt(0);
+                classes[c] = SYMBOL;
+                symbols[c] = type;
+            }
+        }
+        symbols['/'] = TokenType.SLASH;
+    }
+
+    private CharClass() {
+    }
+
+    public static byte of(int b) {
+        return classes[b & 0xff];
+    }
+
+    public static TokenType symbol(int b) {
+        return symbols[b & 0xff];
+    }
+
+    public static boolean isAlphaNumeric(int b) {
+        byte c = classes[b & 0xff];
+        return c == ALPHA || c == DIGIT;
+    }
+
+}
@@ -0,0 +1,163 @@
+package br.ufma.ecp.token;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Tabela de identificadores compartilhada por todos os arquivos de uma
+ * compilacao. Cada nome distinto recebe um id inteiro denso e uma unica
+ * String; o Scanner interna os bytes do identificador direto do fonte,
+ * e a tabela de simbolos e o Parser passam a trabalhar com os ids.
+ *
+ * Nao ha tabela global: quem comeca a compilacao cria uma e a passa nos
+ * Source de todos os arquivos; quando a compilacao acaba ela e descartada.
+ *
+ * A busca de um nome ja conhecido nao usa lock: as entradas sao imutaveis
+ * e, se a leitura nao enxergar uma insercao recente, cai no caminho
+ * sincronizado, que procura de novo antes de inserir.
+ */
+public final class Interner {
+
+    // ids fixos, os mesmos em toda tabela: os tipos primitivos e "this"
+    public static final int INT_ID = 0;
+    public static final int CHAR_ID = 1;
+    public static final int BOOLEAN_ID = 2;
+    public static final int THIS_ID = 3;
+
+    private static final class Entry {
+        final byte[] bytes;
+        final int hash;
+        final int id;
+        final String name;
+
+        Entry(byte[] bytes, int hash, int id) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.id = id;
+            this.name = new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private volatile Entry[] table = new Entry[256];
+    private volatile Entry[] byId = new Entry[128];
+    private int count;
+
+    private final ConcurrentHashMap<Long, String> qualified = new ConcurrentHashMap<>();
+
+    public Interner() {
+        intern("int");
+        intern("char");
+        intern("boolean");
+        intern("this");
+    }
+
+    public int intern(ByteBuffer input, int offset, int length) {
+        int hash = hash(input, offset, length);
+        Entry e = find(table, input, offset, length, hash);
+        if (e != null)
+            return e.id;
+        return insert(input, offset, length, hash);
+    }
+
+    public int intern(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        return intern(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    public String name(int id) {
+        Entry[] entries = byId;
+        Entry e = id < entries.length ? entries[id] : null;
+        if (e == null) {
+            synchronized (this) {
+                e = byId[id];
+            }
+        }
+        return e.name;
+    }
+
+    // nome "Classe.subrotina", montado uma vez por par de ids
+    public String qualified(int classId, int nameId) {
+        long key = ((long) classId << 32) | (nameId & 0xffffffffL);
+        String s = qualified.get(key);
+        if (s == null) {
+            s = qualified.computeIfAbsent(key, k -> name(classId) + "." + name(nameId));
+        }
+        return s;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    private synchronized int insert(ByteBuffer input, int offset, int length, int hash) {
+        Entry e = find(table, input, offset, length, hash);
+        if (e != null)
+            return e.id;
+
+        byte[] bytes = new byte[length];
+        input.get(offset, bytes);
+        e = new Entry(bytes, hash, count);
+
+        Entry[] ids = byId;
+        if (count == ids.length) {
+            Entry[] grown = new Entry[ids.length * 2];
+            System.arraycopy(ids, 0, grown, 0, ids.length);
+            ids = grown;
+        }
+        ids[count] = e;
+        byId = ids;
+
+        Entry[] entries = table;
+        if ((count + 1) * 2 > entries.length) {
+            Entry[] grown = new Entry[entries.length * 2];
+            for (Entry old : entries) {
+                if (old != null)
+                    place(grown, old);
+            }
+            place(grown, e);
+            table = grown;
+        } else {
+            place(entries, e);
+        }
+        count++;
+        return e.id;
+    }
+
+    private static void place(Entry[] entries, Entry e) {
+        int mask = entries.length - 1;
+        int i = e.hash & mask;
+        while (entries[i] != null)
+            i = (i + 1) & mask;
+        entries[i] = e;
+    }
+
+    private static Entry find(Entry[] entries, ByteBuffer input, int offset, int length, int hash) {
+        int mask = entries.length - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            Entry e = entries[i];
+            if (e == null)
+                return null;
+            if (e.hash == hash && equals(e.bytes, input, offset, length))
+                return e;
+        }
+    }
+
+    private static boolean equals(byte[] bytes, ByteBuffer input, int offset, int length) {
+        if (bytes.length != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != input.get(offset + i))
+                return false;
+        }
+        return true;
+    }
+
+    private static int hash(ByteBuffer input, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++)
+            h = 31 * h + input.get(i);
+        return h ^ (h >>> 16);
+    }
+
+}
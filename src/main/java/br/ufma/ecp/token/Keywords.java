@@ -0,0 +1,63 @@
+package br.ufma.ecp.token;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Reconhece palavras-chave direto sobre os bytes da entrada.
+ * A chave (primeira letra, tamanho) deixa no maximo dois candidatos
+ * (ex.: "field" e "false"), que sao comparados byte a byte.
+ */
+public final class Keywords {
+
+    private static final int MAX_LENGTH = 11;
+
+    private static final TokenType[][] table = new TokenType[32 * (MAX_LENGTH + 1)][];
+    private static final byte[][] text = new byte[TokenType.values().length][];
+
+    static {
+        for (TokenType type : TokenType.values()) {
+            if (!TokenType.isKeyword(type))
+                continue;
+            byte[] bytes = type.value.getBytes(StandardCharsets.US_ASCII);
+            text[type.ordinal()] = bytes;
+            int slot = slot(bytes[0], bytes.length);
+            TokenType[] old = table[slot];
+            if (old == null) {
+                table[slot] = new TokenType[] { type };
+            } else {
+                TokenType[] grown = new TokenType[old.length + 1];
+                System.arraycopy(old, 0, grown, 0, old.length);
+                grown[old.length] = type;
+                table[slot] = grown;
+            }
+        }
+    }
+
+    private Keywords() {
+    }
+
+    private static int slot(byte first, int length) {
+        return (first & 31) * (MAX_LENGTH + 1) + length;
+    }
+
+    // devolve o TokenType da palavra-chave ou IDENT
+    public static TokenType match(ByteBuffer input, int offset, int length) {
+        byte first = input.get(offset);
+        if (length > MAX_LENGTH || first < 'a' || first > 'z')
+            return TokenType.IDENT;
+        TokenType[] candidates = table[slot(first, length)];
+        if (candidates == null)
+            return TokenType.IDENT;
+        for (TokenType type : candidates) {
+            byte[] kw = text[type.ordinal()];
+            int i = 1;
+            while (i < length && input.get(offset + i) == kw[i])
+                i++;
+            if (i == length)
+                return type;
+        }
+        return TokenType.IDENT;
+    }
+
+}
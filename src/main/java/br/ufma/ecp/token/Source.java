@@ -0,0 +1,118 @@
+package br.ufma.ecp.token;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Texto-fonte compartilhado pelos tokens de um arquivo.
+ * Os tokens guardam apenas offset e tamanho; o lexema e o numero
+ * da linha so sao calculados aqui quando alguem pede.
+ */
+public class Source {
+
+    private final ByteBuffer input;
+    private final int length;
+    private final String name;
+    private final Interner interner;
+    private volatile int[] lineStarts;
+
+    public Source(byte[] input) {
+        this(ByteBuffer.wrap(input));
+    }
+
+    // aceita tambem um MappedByteBuffer, sem copiar o conteudo para o heap
+    public Source(ByteBuffer input) {
+        this(input, "");
+    }
+
+    // um arquivo sozinho tem a sua propria tabela de identificadores
+    public Source(ByteBuffer input, String name) {
+        this(input, name, new Interner());
+    }
+
+    // arquivo de uma compilacao maior, que usa a tabela da compilacao
+    public Source(ByteBuffer input, String name, Interner interner) {
+        this.input = input.slice();
+        this.length = this.input.limit();
+        this.name = name;
+        this.interner = interner;
+    }
+
+    // nome do arquivo, usado nas mensagens de erro
+    public String name() {
+        return name;
+    }
+
+    // a tabela onde estao os ids dos identificadores deste fonte
+    public Interner interner() {
+        return interner;
+    }
+
+    public ByteBuffer buffer() {
+        return input;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public byte byteAt(int offset) {
+        return input.get(offset);
+    }
+
+    public String lexeme(int offset, int length) {
+        if (input.hasArray()) {
+            return new String(input.array(), input.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        input.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int intValue(int offset, int length) {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = value * 10 + (input.get(i) - '0');
+        }
+        return value;
+    }
+
+    // linha (comecando em 1) onde esta o byte de posicao offset
+    public int line(int offset) {
+        int pos = Arrays.binarySearch(lineStarts(), offset);
+        return pos >= 0 ? pos + 1 : -pos - 1;
+    }
+
+    // coluna (comecando em 1) do byte de posicao offset
+    public int column(int offset) {
+        return offset - lineStarts()[line(offset) - 1] + 1;
+    }
+
+    private int[] lineStarts() {
+        int[] starts = lineStarts;
+        if (starts == null) {
+            synchronized (this) {
+                if (lineStarts == null)
+                    lineStarts = buildLineStarts();
+                starts = lineStarts;
+            }
+        }
+        return starts;
+    }
+
+    private int[] buildLineStarts() {
+        int[] starts = new int[16];
+        int count = 1;
+        for (int i = ByteSearch.indexOfNewline(input, 0, length); i < length;
+                i = ByteSearch.indexOfNewline(input, i + 1, length)) {
+            if (input.get(i) == '\n') {
+                if (count == starts.length)
+                    starts = Arrays.copyOf(starts, count * 2);
+                starts[count++] = i + 1;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+}
@@ -2,13 +2,89 @@ package br.ufma.ecp.token;
 public class Token {
 
     public final TokenType type;
-    public final String lexeme;
-    public final int line;
+    public final int offset;
+    public final int length;
+    // id do identificador no Interner, ou -1 para os demais tokens
+    public final int id;
+
+    private final Source source;
+    private String lexeme;
+    private int line;
+    private int column; // so nos tokens sem Source
 
     public Token (TokenType type, String lexeme, int line) {
         this.type = type;
         this.lexeme = lexeme;
         this.line = line;
+        this.source = null;
+        this.offset = 0;
+        this.length = lexeme.length();
+        this.id = -1;
+    }
+
+    public Token (TokenType type, String lexeme, int line, int id) {
+        this.type = type;
+        this.lexeme = lexeme;
+        this.line = line;
+        this.source = null;
+        this.offset = 0;
+        this.length = lexeme.length();
+        this.id = id;
+    }
+
+    // token lido sem Source (StreamScanner): a coluna vem pronta
+    public Token (TokenType type, String lexeme, int line, int column, int id) {
+        this(type, lexeme, line, id);
+        this.column = column;
+    }
+
+    // token que aponta para um trecho do fonte, sem copiar o lexema
+    public Token (TokenType type, Source source, int offset, int length) {
+        this(type, source, offset, length, 0, -1);
+    }
+
+    public Token (TokenType type, Source source, int offset, int length, int line) {
+        this(type, source, offset, length, line, -1);
+    }
+
+    // line = 0 faz a linha ser calculada pelo Source quando pedida
+    public Token (TokenType type, Source source, int offset, int length, int line, int id) {
+        this.type = type;
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+        this.line = line;
+        this.id = id;
+    }
+
+    public String lexeme () {
+        if (lexeme == null) {
+            if (type.value != null)
+                lexeme = type.value;
+            else if (id >= 0)
+                lexeme = source.interner().name(id);
+            else
+                lexeme = source.lexeme(offset, length);
+        }
+        return lexeme;
+    }
+
+    public int line () {
+        if (line == 0) {
+            line = source.line(offset);
+        }
+        return line;
+    }
+
+    // coluna (comecando em 1), ou 0 se nao e conhecida
+    public int column () {
+        return source != null ? source.column(offset) : column;
+    }
+
+    public int intValue () {
+        if (source == null)
+            return Integer.parseInt(lexeme);
+        return source.intValue(offset, length);
     }
 
     public String value () {
@@ -17,7 +93,7 @@ public class Token {
 
     public String toString() {
         var type = this.type.toString();
-        String valor = lexeme;
+        String valor = lexeme();
         if (type.equals("NUMBER"))
             type =  "integerConstant";
 
@@ -27,7 +103,7 @@ public class Token {
         if (type.equals("IDENT"))
             type =  "identifier";
 
-        if (TokenType.isSymbol(lexeme.charAt(0)))
+        if (TokenType.isSymbol(valor.charAt(0)))
             type = "symbol";
 
             if (valor.equals(">")) {
@@ -42,9 +118,9 @@ public class Token {
 
         if (TokenType.isKeyword(this.type) )
             type = "keyword";
-    
+
 
         return "<"+ type +"> " + valor + " </"+ type + ">";
     }
-    
+
 }
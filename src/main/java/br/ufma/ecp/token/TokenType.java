@@ -1,16 +1,16 @@
 package br.ufma.ecp.token;
 
-import java.util.List;
+import java.util.EnumSet;
 
 public enum TokenType {
     // symbols
-    LPAREN, RPAREN,
-    LBRACE, RBRACE,
-    LBRACKET,RBRACKET,
-    COMMA, SEMICOLON, DOT,
-    PLUS,  MINUS,ASTERISK, SLASH,
-    AND, OR, NOT,
-    LT, GT, EQ,
+    LPAREN("("), RPAREN(")"),
+    LBRACE("{"), RBRACE("}"),
+    LBRACKET("["),RBRACKET("]"),
+    COMMA(","), SEMICOLON(";"), DOT("."),
+    PLUS("+"),  MINUS("-"),ASTERISK("*"), SLASH("/"),
+    AND("&"), OR("|"), NOT("~"),
+    LT("<"), GT(">"), EQ("="),
 
      // Literals.
      NUMBER,
@@ -21,13 +21,13 @@ public enum TokenType {
 
 
      // keywords
-     METHOD, WHILE, IF, CLASS,
-     CONSTRUCTOR, FUNCTION, FIELD,
-     STATIC, VAR, INT, CHAR,
-     BOOLEAN, VOID, TRUE, FALSE,
-     NULL, THIS, LET, DO, ELSE, RETURN,
+     METHOD("method"), WHILE("while"), IF("if"), CLASS("class"),
+     CONSTRUCTOR("constructor"), FUNCTION("function"), FIELD("field"),
+     STATIC("static"), VAR("var"), INT("int"), CHAR("char"),
+     BOOLEAN("boolean"), VOID("void"), TRUE("true"), FALSE("false"),
+     NULL("null"), THIS("this"), LET("let"), DO("do"), ELSE("else"), RETURN("return"),
 
-     EOF,
+     EOF("EOF"),
 
      ILLEGAL;
 
@@ -45,32 +45,10 @@ public enum TokenType {
 
     public String value;
 
+    private static final EnumSet<TokenType> keywords = EnumSet.range(METHOD, RETURN);
+
     static public boolean isKeyword (TokenType type) {
-        List<TokenType> keywords  = 
-            List.of(
-                TokenType.METHOD,
-                TokenType.WHILE,
-                TokenType.IF,
-                TokenType.CLASS,
-                TokenType.CONSTRUCTOR,
-                TokenType.FUNCTION,
-                TokenType.FIELD,
-                TokenType.STATIC,
-                TokenType.VAR,
-                TokenType.INT,
-                TokenType.CHAR,
-                TokenType.BOOLEAN,
-                TokenType.VOID,
-                TokenType.TRUE,
-                TokenType.FALSE,
-                TokenType.NULL,
-                TokenType.THIS,
-                TokenType.LET,
-                TokenType.DO,
-                TokenType.ELSE,
-                TokenType.RETURN
-            );
-            return keywords.contains(type);
+        return keywords.contains(type);
     }
 
 }
@@ -3,11 +3,19 @@ package br.ufma.ecp;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
+import br.ufma.ecp.token.Source;
+
 public class GeneratorCodeTest {
 
 
@@ -830,7 +838,317 @@ public class GeneratorCodeTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testAstGeneratorMatchesParser() throws IOException {
+        String[] files = { "Square/Main.jack", "Square/Square.jack", "Square/SquareGame.jack",
+                "Pong/Ball.jack", "Pong/Bat.jack", "Pong/Main.jack", "Pong/PongGame.jack",
+                "Average/Main.jack", "Seven/Main.jack", "ArrayTest/Main.jack" };
+        for (String file : files) {
+            var input = TestSupport.fromFile(file).getBytes(StandardCharsets.UTF_8);
 
-   
-    
-}
\ No newline at end of file
+            var parser = new Parser(input);
+            parser.parse();
+
+            var ast = new AstParser(TokenArray.tokenize(input)).parse();
+            var generator = new VMGenerator(ast);
+            generator.generate();
+
+            assertEquals(file, parser.VMOutput(), generator.VMOutput());
+        }
+    }
+
+    @Test
+    public void testAstPipelineReportsErrors() {
+        var diagnostics = new Diagnostics();
+        var tokens = TokenArray.tokenize(new Source("class A { function void f() { let = 1; } }"
+                .getBytes(StandardCharsets.UTF_8)), diagnostics);
+        assertNull(new AstParser(tokens, diagnostics).parse());
+        assertEquals(1, diagnostics.count());
+        assertEquals(":1:35: Error at '=': Expected one of: [IDENT]", diagnostics.all().get(0).toString());
+
+        diagnostics = new Diagnostics();
+        tokens = TokenArray.tokenize(new Source("class A { function void f() { let x = 1; return; } }"
+                .getBytes(StandardCharsets.UTF_8)), diagnostics);
+        var ast = new AstParser(tokens, diagnostics).parse();
+        var generator = new VMGenerator(ast, diagnostics);
+        generator.generate();
+        assertEquals(1, diagnostics.count());
+        assertEquals(":1:35: Error at 'x': Undefined variable x", diagnostics.all().get(0).toString());
+
+        // declaracao repetida: o mesmo erro do Parser
+        var input = "class A { function void f() { var int x, x; return; } }".getBytes(StandardCharsets.UTF_8);
+        var parser = new Parser(input);
+        parser.parse();
+        diagnostics = new Diagnostics();
+        generator = new VMGenerator(new AstParser(TokenArray.tokenize(input), diagnostics).parse(), diagnostics);
+        generator.generate();
+        assertEquals(1, diagnostics.count());
+        assertEquals(":1:42: Error at 'x': variable already defined", diagnostics.all().get(0).toString());
+        assertEquals(parser.diagnostics().all(), diagnostics.all());
+    }
+
+    @Test
+    public void testStreamingOutputMatchesBuffered() throws IOException {
+        var input = TestSupport.fromFile("Pong/PongGame.jack").getBytes(StandardCharsets.UTF_8);
+
+        var buffered = new Parser(input);
+        buffered.parse();
+
+        var out = new StringWriter();
+        var streaming = new Parser(input);
+        streaming.setOutput(out);
+        streaming.parse();
+
+        assertEquals(buffered.VMOutput(), out.toString());
+        assertEquals("", streaming.VMOutput());
+    }
+
+    @Test
+    public void testByteOutputMatchesBuffered() throws IOException {
+        var input = TestSupport.fromFile("Pong/PongGame.jack").getBytes(StandardCharsets.UTF_8);
+
+        var buffered = new Parser(input);
+        buffered.parse();
+
+        var out = new ByteArrayOutputStream();
+        var streaming = new Parser(input);
+        streaming.setOutput(out);
+        streaming.parse();
+
+        assertEquals(buffered.VMOutput(), out.toString(StandardCharsets.UTF_8));
+        assertEquals("", streaming.VMOutput());
+    }
+
+    @Test
+    public void testVMWriterEncodesNumbers() {
+        var writer = new VMWriter();
+        writer.writePush(VMWriter.Segment.CONST, 0);
+        writer.writePush(VMWriter.Segment.CONST, 32767);
+        writer.writePop(VMWriter.Segment.TEMP, -1);
+        writer.writeCall("Math.max", Integer.MIN_VALUE);
+        writer.writeLabel("WHILE_EXP", 10);
+        writer.writeIf("IF_TRUE", 0);
+        writer.writeArithmetic(VMWriter.Command.NOT);
+        writer.writeReturn();
+        String expected = """
+            push constant 0
+            push constant 32767
+            pop temp -1
+            call Math.max -2147483648
+            label WHILE_EXP10
+            if-goto IF_TRUE0
+            not
+            return
+            """;
+        assertEquals(expected, writer.vmOutput());
+    }
+
+    @Test
+    public void testParallelCodegenMatchesSequential() throws IOException {
+        String[] files = { "Square/Square.jack", "Square/SquareGame.jack", "Pong/Ball.jack",
+                "Pong/PongGame.jack", "Average/Main.jack", "ArrayTest/Main.jack" };
+        var pool = new ForkJoinPool(4);
+        try {
+            for (String file : files) {
+                var input = TestSupport.fromFile(file).getBytes(StandardCharsets.UTF_8);
+
+                var sequential = new Parser(TokenArray.tokenize(input));
+                sequential.parse();
+                var parallel = new Parser(TokenArray.tokenize(input));
+                parallel.parse(pool);
+
+                assertEquals(file, sequential.VMOutput(), parallel.VMOutput());
+            }
+
+            var broken = """
+                class A {
+                    static int s;
+                    function void f() { let x = 1; return; }
+                    static int t;
+                    function int g() { return s; }
+                }
+                """.getBytes(StandardCharsets.UTF_8);
+            var sequential = new Parser(TokenArray.tokenize(broken));
+            sequential.parse();
+            var parallel = new Parser(TokenArray.tokenize(broken));
+            parallel.parse(pool);
+            assertEquals(sequential.VMOutput(), parallel.VMOutput());
+            assertEquals(sequential.diagnostics().all(), parallel.diagnostics().all());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelParseMatchesOnUnbalancedBraces() {
+        // falta a '}' do if: a contagem de chaves poe g dentro de f
+        var unbalanced = "class A {\n function void f() {\n  if (x) { return; \n }\n function void g() { return; }\n}\n";
+        var pool = new ForkJoinPool(4);
+        try {
+            var sequential = new Parser(TokenArray.tokenize(unbalanced.getBytes(StandardCharsets.UTF_8)));
+            sequential.parse();
+            var parallel = new Parser(TokenArray.tokenize(unbalanced.getBytes(StandardCharsets.UTF_8)));
+            parallel.parse(pool);
+            assertEquals(1, sequential.diagnostics().count());
+            assertEquals(sequential.VMOutput(), parallel.VMOutput());
+            assertEquals(sequential.diagnostics().all(), parallel.diagnostics().all());
+
+            var compiler = new IncrementalCompiler(unbalanced.getBytes(StandardCharsets.UTF_8));
+            assertEquals(sequential.VMOutput(), compiler.VMOutput());
+            assertEquals(sequential.diagnostics().all(), compiler.diagnostics().all());
+            // fecha o if: volta a compilar por subrotina
+            assertEdit(compiler, unbalanced, "return; \n", "return; }\n", false);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testIncrementalMatchesFullCompile() throws IOException {
+        var text = TestSupport.fromFile("Pong/PongGame.jack");
+        var compiler = new IncrementalCompiler(text.getBytes(StandardCharsets.UTF_8));
+
+        // dentro do corpo de moveBall: so ela e refeita
+        text = assertEdit(compiler, text, "let wall = ball.move();", "let wall = ball.move() + 1;", true);
+        // cria um erro e depois corrige
+        text = assertEdit(compiler, text, "let lastWall = wall;", "let lastWall = ;", true);
+        assertEquals(1, compiler.diagnostics().count());
+        text = assertEdit(compiler, text, "let lastWall = ;", "let lastWall = wall;", true);
+        assertEquals(0, compiler.diagnostics().count());
+        // nova subrotina e novo campo mudam a estrutura da classe
+        text = assertEdit(compiler, text, "    method void moveBall() {",
+                "    function int one() { return 1; }\n    method void moveBall() {", false);
+        assertEdit(compiler, text, "field int wall;", "field int wall, extra;", false);
+    }
+
+    @Test
+    public void testIncrementalInternerStaysBounded() throws IOException {
+        var text = TestSupport.fromFile("Pong/PongGame.jack");
+        var compiler = new IncrementalCompiler(text.getBytes(StandardCharsets.UTF_8));
+        int initial = compiler.tokens().source().interner().size();
+
+        // cada edicao troca o nome por um que ainda nao existia
+        var name = "wall";
+        for (int i = 0; i < 2000; i++) {
+            var next = "w" + i;
+            text = edit(compiler, text, "let " + name + " = ball.move();", "let " + next + " = ball.move();");
+            name = next;
+            assertTrue(compiler.tokens().source().interner().size() < 3 * initial + 300);
+        }
+        assertEdit(compiler, text, "let " + name + " = ball.move();", "let wall = ball.move();", true);
+        assertEquals(0, compiler.diagnostics().count());
+    }
+
+    private static String edit(IncrementalCompiler compiler, String text, String from, String to) {
+        int offset = text.indexOf(from);
+        compiler.edit(offset, from.length(), to.getBytes(StandardCharsets.UTF_8));
+        return text.substring(0, offset) + to + text.substring(offset + from.length());
+    }
+
+    private static String assertEdit(IncrementalCompiler compiler, String text, String from, String to,
+            boolean incremental) {
+        int offset = text.indexOf(from);
+        assertEquals(incremental, compiler.edit(offset, from.length(), to.getBytes(StandardCharsets.UTF_8)));
+        var edited = text.substring(0, offset) + to + text.substring(offset + from.length());
+
+        var full = new Parser(TokenArray.tokenize(edited.getBytes(StandardCharsets.UTF_8)));
+        full.parse();
+        assertEquals(full.VMOutput(), compiler.VMOutput());
+        assertEquals(full.diagnostics().all(), compiler.diagnostics().all());
+        return edited;
+    }
+
+    @Test
+    public void testReusedContextMatchesFreshParser() throws IOException {
+        String[] files = { "Square/Square.jack", "Pong/Ball.jack", "Square/SquareGame.jack",
+                "Pong/PongGame.jack", "Average/Main.jack" };
+        var context = new CompilationContext();
+
+        var broken = context.reset(new Source("class A { function void f() { let x = ; } }".getBytes(StandardCharsets.UTF_8)));
+        broken.parse();
+        assertEquals(1, context.diagnostics().count());
+        context.release();
+        assertEquals(0, context.diagnostics().count());
+        assertEquals("", context.parser().VMOutput());
+
+        for (String file : files) {
+            var input = TestSupport.fromFile(file).getBytes(StandardCharsets.UTF_8);
+            var fresh = new Parser(input);
+            fresh.parse();
+
+            var parser = context.reset(new Source(input));
+            parser.parse();
+            assertEquals(file, fresh.VMOutput(), parser.VMOutput());
+            assertEquals(file, 0, context.diagnostics().count());
+        }
+    }
+
+    @Test
+    public void testSubroutineScopeIsClearedAfterGrowing() {
+        var locals = new StringBuilder();
+        for (int i = 0; i < 40; i++)
+            locals.append("var int v").append(i).append("; ");
+        var input = "class A { field int v0; method int f() { " + locals + "return v39; }"
+                + " method int g() { return v0; } }";
+
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.parse();
+        assertEquals(0, parser.diagnostics().count());
+        String expected = """
+            function A.f 40
+            push argument 0
+            pop pointer 0
+            push local 39
+            return
+            function A.g 0
+            push argument 0
+            pop pointer 0
+            push this 0
+            return
+            """;
+        assertEquals(expected, parser.VMOutput());
+    }
+
+    @Test
+    public void testDeeplyNestedExpressions() {
+        int depth = 100_000;
+
+        var parens = "(".repeat(depth) + "1" + ")".repeat(depth);
+        var parser = new Parser(parens.getBytes(StandardCharsets.UTF_8));
+        parser.parseExpression();
+        assertEquals("push constant 1\n", parser.VMOutput());
+
+        var negations = "-".repeat(depth) + "1";
+        parser = new Parser(negations.getBytes(StandardCharsets.UTF_8));
+        parser.parseExpression();
+        assertEquals("push constant 1\n" + "neg\n".repeat(depth), parser.VMOutput());
+
+        var calls = "Math.abs(".repeat(depth) + "1" + ")".repeat(depth);
+        parser = new Parser(calls.getBytes(StandardCharsets.UTF_8));
+        parser.parseExpression();
+        assertEquals("push constant 1\n" + "call Math.abs 1\n".repeat(depth), parser.VMOutput());
+    }
+
+    @Test
+    public void testAstPipelineDeeplyNestedExpressions() {
+        int depth = 50_000;
+        String[] expressions = { "(".repeat(depth) + "1" + ")".repeat(depth), "-".repeat(depth) + "x",
+                "Math.abs(".repeat(depth) + "a[x + 1]" + ")".repeat(depth) };
+
+        for (String expression : expressions) {
+            var input = ("class A { function void f(Array a) { var int x; let x = " + expression
+                    + "; do Output.printInt(" + expression + "); return; } }").getBytes(StandardCharsets.UTF_8);
+            var parser = new Parser(input);
+            parser.parse();
+
+            var diagnostics = new Diagnostics();
+            var ast = new AstParser(TokenArray.tokenize(input), diagnostics).parse();
+            var generator = new VMGenerator(ast, diagnostics);
+            generator.generate();
+
+            assertEquals(0, diagnostics.count());
+            assertEquals(parser.VMOutput(), generator.VMOutput());
+        }
+    }
+
+}
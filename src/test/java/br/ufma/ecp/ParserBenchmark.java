@@ -0,0 +1,117 @@
+package br.ufma.ecp;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+import br.ufma.ecp.token.Interner;
+import br.ufma.ecp.token.Source;
+
+/*
+ * Mede o parse (so VM, sem XML) sobre tokens ja separados: tempo e bytes
+ * alocados por rodada, descontando o que vai para a saida VM.
+ * Nao e um teste; rodar com:
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes br.ufma.ecp.ParserBenchmark
+ */
+public class ParserBenchmark {
+
+    static byte[] generate(int subroutines) {
+        var sb = new StringBuilder("class Gerada {\n    field int x, y;\n");
+        for (int i = 0; i < subroutines; i++) {
+            sb.append("    method int f").append(i).append("(int a, int b) {\n");
+            sb.append("        var int c, d;\n");
+            sb.append("        let c = (a + b) * x - (y / 2);\n");
+            sb.append("        if ((c > 10) & (d < 3) | ~(a = b)) {\n");
+            sb.append("            let d = -c;\n");
+            sb.append("        } else {\n");
+            sb.append("            while (d < c) { let d = d + 1; }\n");
+            sb.append("        }\n");
+            sb.append("        do Output.printInt(c);\n");
+            sb.append("        return d;\n");
+            sb.append("    }\n");
+        }
+        return sb.append("}\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static long allocatedBytes() {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) {
+        byte[] bytes = generate(2000);
+        var tokens = TokenArray.tokenize(bytes);
+        int rounds = 50;
+
+        for (int warmup = 0; warmup < 20; warmup++)
+            new Parser(tokens).parse();
+
+        long output = 0;
+        long allocated = 0;
+        long t0 = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            long before = allocatedBytes();
+            var parser = new Parser(tokens);
+            parser.parse();
+            allocated += allocatedBytes() - before;
+            output += parser.VMOutput().length();
+        }
+        long nanos = System.nanoTime() - t0;
+
+        for (int warmup = 0; warmup < 20; warmup++)
+            new Parser(tokens).parse(ForkJoinPool.commonPool());
+        t0 = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            new Parser(tokens).parse(ForkJoinPool.commonPool());
+        long parallel = System.nanoTime() - t0;
+
+        // uma edicao dentro de uma subrotina no meio do arquivo, desfeita em seguida
+        var compiler = new IncrementalCompiler(bytes);
+        int offset = new String(bytes, StandardCharsets.UTF_8).indexOf("let d = -c;", bytes.length / 2);
+        byte[] edit = "let d = -(c+1);".getBytes(StandardCharsets.UTF_8);
+        byte[] undo = "let d = -c;".getBytes(StandardCharsets.UTF_8);
+        for (int warmup = 0; warmup < 20; warmup++) {
+            compiler.edit(offset, undo.length, edit);
+            compiler.edit(offset, edit.length, undo);
+        }
+        t0 = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            compiler.edit(offset, undo.length, edit);
+            compiler.edit(offset, edit.length, undo);
+        }
+        long incremental = System.nanoTime() - t0;
+
+        // muitos arquivos pequenos: Parser novo a cada arquivo x CompilationContext reaproveitado
+        byte[] small = generate(5);
+        int files = 2000;
+        long fresh = 0;
+        long reused = 0;
+        var context = new CompilationContext();
+        var interner = new Interner(); // os arquivos sao de uma mesma compilacao
+        for (int round = 0; round < 2; round++) { // a primeira rodada e aquecimento
+            fresh = allocatedBytes();
+            for (int f = 0; f < files; f++) {
+                var parser = new Parser(new Source(small), new Diagnostics());
+                parser.parse();
+            }
+            fresh = allocatedBytes() - fresh;
+            reused = allocatedBytes();
+            for (int f = 0; f < files; f++)
+                context.reset(new Source(ByteBuffer.wrap(small), "", interner)).parse();
+            reused = allocatedBytes() - reused;
+        }
+
+        System.out.printf("entrada: %d bytes, %d tokens, %d rodadas%n", bytes.length, tokens.size(), rounds);
+        System.out.printf("parse            : %8.2f ms/rodada%n", nanos / 1e6 / rounds);
+        System.out.printf("em paralelo      : %8.2f ms/rodada (%d threads)%n", parallel / 1e6 / rounds,
+                ForkJoinPool.getCommonPoolParallelism());
+        System.out.printf("incremental      : %8.2f ms/edicao%n", incremental / 1e6 / (2 * rounds));
+        System.out.printf("alocado          : %8.1f bytes/token%n", (double) allocated / rounds / tokens.size());
+        System.out.printf("saida VM         : %8.1f chars/token%n", (double) output / rounds / tokens.size());
+        System.out.printf("arquivo pequeno  : %8.0f bytes novo, %8.0f bytes com contexto%n",
+                (double) fresh / files, (double) reused / files);
+    }
+
+}
@@ -2,11 +2,20 @@ package br.ufma.ecp;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.junit.Test;
 
+import br.ufma.ecp.token.Source;
 import br.ufma.ecp.token.Token;
 import br.ufma.ecp.token.TokenType;
 
@@ -18,6 +27,7 @@ public class ParserTest extends TestSupport {
     public void testParseTermInteger () {
       var input = "10;";
       var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+      parser.setListener(new XmlParseListener());
       parser.parseTerm();
       var expectedResult =  """
         <term>
@@ -37,6 +47,7 @@ public class ParserTest extends TestSupport {
     public void testParseTermIdentifer() {
         var input = "varName;";
         var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.setListener(new XmlParseListener());
         parser.parseTerm();
 
         var expectedResult =  """
@@ -58,6 +69,7 @@ public class ParserTest extends TestSupport {
     public void testParseTermString() {
         var input = "\"Hello World\"";
         var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.setListener(new XmlParseListener());
         parser.parseTerm();
 
         var expectedResult =  """
@@ -76,6 +88,7 @@ public class ParserTest extends TestSupport {
     public void testParseExpressionSimple() {
         var input = "10+20";
         var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.setListener(new XmlParseListener());
         parser.parseExpression();
 
         var expectedResult =  """
@@ -101,6 +114,7 @@ public class ParserTest extends TestSupport {
     public void testParseLetSimple() {
         var input = "let var1 = 10+20;";
         var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.setListener(new XmlParseListener());
         parser.parseLet();
 				var expectedResult =  """
 	     <letStatement>
@@ -129,6 +143,7 @@ public class ParserTest extends TestSupport {
     public void testParseSubroutineCall() {
         var input = "hello()";
         var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.setListener(new XmlParseListener());
         parser.parseSubroutineCall();
 
         var expectedResult =  """
@@ -150,6 +165,7 @@ public class ParserTest extends TestSupport {
     public void testParseDo() {
         var input = "do hello();";
         var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.setListener(new XmlParseListener());
         parser.parseDo();
 
         var expectedResult = """
@@ -175,6 +191,7 @@ public class ParserTest extends TestSupport {
         var expectedResult =  fromFile("ExpressionLessSquare/SquareGame.xml");
 
         var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.setListener(new XmlParseListener());
         parser.parse();
         var result = parser.XMLOutput();
         expectedResult = expectedResult.replaceAll("  ", "");
@@ -187,6 +204,7 @@ public class ParserTest extends TestSupport {
         var expectedResult =  fromFile("Square/SquareGame.xml");
 
         var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.setListener(new XmlParseListener());
         parser.parse();
         var result = parser.XMLOutput();
         expectedResult = expectedResult.replaceAll("  ", "");
@@ -200,11 +218,206 @@ public class ParserTest extends TestSupport {
         var expectedResult =  fromFile("Square/Square.xml");
 
         var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.setListener(new XmlParseListener());
         parser.parse();
         var result = parser.XMLOutput();
         expectedResult = expectedResult.replaceAll("  ", "");
         assertEquals(expectedResult, result);
     }
 
+    @Test
+    public void testParserOverTokenArray() throws IOException {
+        for (String file : new String[] { "Square/SquareGame.jack", "Pong/PongGame.jack", "Pong/Ball.jack" }) {
+            var input = fromFile(file).getBytes(StandardCharsets.UTF_8);
+
+            var expected = new Parser(input);
+            expected.setListener(new XmlParseListener());
+            expected.parse();
+            var actual = new Parser(TokenArray.tokenize(input));
+            actual.setListener(new XmlParseListener());
+            actual.parse();
+
+            assertEquals(expected.XMLOutput(), actual.XMLOutput());
+            assertEquals(expected.VMOutput(), actual.VMOutput());
+        }
+    }
+
+    @Test
+    public void testNoListenerBuildsNoXml() throws IOException {
+        var input = fromFile("Square/Square.jack").getBytes(StandardCharsets.UTF_8);
+
+        var withXml = new Parser(input);
+        withXml.setListener(new XmlParseListener());
+        withXml.parse();
+        var withoutXml = new Parser(input);
+        withoutXml.parse();
+
+        assertEquals("", withoutXml.XMLOutput());
+        assertEquals(withXml.VMOutput(), withoutXml.VMOutput());
+    }
+
+    @Test
+    public void testRecoversAndReportsAllErrors() {
+        var input = """
+            class A {
+                function void f() { let x = 1; return; }
+                function void g() { var int y; let y = ; do A.f(); return; }
+                function int h() { var int z, z; return 3; }
+                function int k() { return 4; }
+            }
+            """;
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.parse();
+
+        var errors = parser.diagnostics().all();
+        assertEquals(3, errors.size());
+        assertEquals(2, errors.get(0).line());
+        assertEquals(3, errors.get(1).line());
+        assertEquals(4, errors.get(2).line());
+        assertEquals("function A.k 0\npush constant 4\nreturn\n", parser.VMOutput());
+    }
+
+    @Test
+    public void testStreamedDiagnosticsHaveColumns() {
+        var input = "class A {\n  function void f() {\n    let x = \"s\" + ;\n    return;\n  }\n}\n"
+                .getBytes(StandardCharsets.UTF_8);
+        var fromSource = new Parser(new Source(ByteBuffer.wrap(input), "A.jack"), new Diagnostics());
+        fromSource.parse();
+
+        var diagnostics = new Diagnostics();
+        var streamed = new Parser(new StreamScanner(Channels.newChannel(new ByteArrayInputStream(input)), 8,
+                "A.jack", diagnostics), "A.jack", diagnostics);
+        streamed.parse();
+
+        assertEquals(1, diagnostics.count());
+        assertEquals(fromSource.diagnostics().all(), diagnostics.all());
+    }
+
+    @Test
+    public void testClassIndexChecksCalls() {
+        var foo = """
+            class Foo {
+                constructor Foo new(int a, int b) { return this; }
+                method void bar(int x) { return; }
+            }
+            """;
+        var main = """
+            class Main {
+                function void main() {
+                    var Foo f;
+                    let f = Foo.new(1, 2);
+                    do f.bar(1);
+                    do Output.printInt(7);
+                    do Foo.bar(1);
+                    do Foo.baz();
+                    do Math.max(1);
+                    do Unknown.run(1, 2, 3);
+                    let f = f.new(1, 2);
+                    return;
+                }
+            }
+            """;
+        var sources = List.of(new Source(foo.getBytes(StandardCharsets.UTF_8)),
+                new Source(main.getBytes(StandardCharsets.UTF_8)));
+        var index = ClassIndex.build(sources, ForkJoinPool.commonPool());
+        assertEquals(new ClassIndex.Signature(TokenType.CONSTRUCTOR, "Foo", 2), index.lookup("Foo", "new"));
+        assertEquals(new ClassIndex.Signature(TokenType.FUNCTION, "void", 0), index.lookup("Main", "main"));
+        assertEquals(4, index.lookup("Screen.drawRectangle").parameters());
+
+        var parser = new Parser(main.getBytes(StandardCharsets.UTF_8));
+        parser.setClassIndex(index);
+        parser.parse();
+        var errors = parser.diagnostics().all();
+        assertEquals(4, errors.size());
+        assertEquals(7, errors.get(0).line());
+        assertEquals(8, errors.get(1).line());
+        assertEquals(9, errors.get(2).line());
+        assertEquals("Error at 'new': Foo.new is a constructor and cannot be called on an object",
+                errors.get(3).message());
+    }
+
+    @Test(timeout = 10000)
+    public void testRegistryHandlesCyclicClasses() throws Exception {
+        var a = """
+            class A {
+                field int x;
+                function int f(int n) { if (n > 0) { return B.g(n - 1); } return 0; }
+                method int h() { return B.g(x, 1); }
+            }
+            """;
+        var b = """
+            class B {
+                static int count;
+                function int g(int n) { let count = count + 1; return A.f(n); }
+            }
+            """;
+        for (int threads : new int[] { 1, 4 }) {
+            var pool = new ForkJoinPool(threads);
+            try {
+                var registry = new ClassRegistry(List.of("A.jack", "B.jack"));
+                var tasks = new ArrayList<ForkJoinTask<Parser>>();
+                for (var file : List.of(List.of("A.jack", a), List.of("B.jack", b))) {
+                    tasks.add(pool.submit(() -> {
+                        var source = new Source(ByteBuffer.wrap(file.get(1).getBytes(StandardCharsets.UTF_8)), file.get(0));
+                        var parser = new Parser(TokenArray.tokenize(source, new Diagnostics()), new Diagnostics());
+                        parser.setRegistry(registry);
+                        parser.parse();
+                        return parser;
+                    }));
+                }
+                var errors = tasks.get(0).get().diagnostics().all();
+                assertEquals(1, errors.size());
+                assertEquals("A.jack:4:37: Error at ')': B.g expects 1 arguments, got 2", errors.get(0).toString());
+                assertEquals(0, tasks.get(1).get().diagnostics().count());
+
+                assertEquals(1, registry.facts("A").fields());
+                assertEquals(1, registry.facts("B").statics());
+                assertEquals(null, registry.facts("C"));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testClassInterfaceRoundTrip() throws IOException {
+        var foo = """
+            class Foo {
+                field int a, b;
+                static boolean s;
+                constructor Foo new(int a, int b) { return this; }
+                method void bar(int x) { return; }
+                function Foo make() { return Foo.new(1, 2); }
+            }
+            """.getBytes(StandardCharsets.UTF_8);
+        var parser = new Parser(TokenArray.tokenize(foo));
+        parser.parse();
+        long hash = ClassInterface.hash(ByteBuffer.wrap(foo));
+
+        var path = Files.createTempFile("Foo", ".jacki");
+        try {
+            ClassInterface.write(path, parser.facts(), hash);
+
+            var facts = ClassInterface.read(path, hash);
+            assertEquals("Foo", facts.name());
+            assertEquals(2, facts.fields());
+            assertEquals(1, facts.statics());
+            assertEquals(new ClassIndex.Signature(TokenType.CONSTRUCTOR, "Foo", 2), facts.signatures().lookup("Foo.new"));
+            assertEquals(new ClassIndex.Signature(TokenType.METHOD, "void", 1), facts.signatures().lookup("Foo.bar"));
+            assertEquals(new ClassIndex.Signature(TokenType.FUNCTION, "Foo", 0), facts.signatures().lookup("Foo.make"));
+
+            // fonte mudou: a interface e ignorada
+            assertEquals(null, ClassInterface.read(path, hash + 1));
+            assertEquals("Foo", ClassInterface.read(path).name());
+
+            // outra versao do formato tambem
+            byte[] bytes = Files.readAllBytes(path);
+            bytes[5]++;
+            Files.write(path, bytes);
+            assertEquals(null, ClassInterface.read(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+package br.ufma.ecp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import br.ufma.ecp.token.ByteSearch;
+import br.ufma.ecp.token.Source;
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Compara a busca de oito em oito bytes (ByteSearch) com o laco antigo,
+ * byte a byte, num fonte gerado com muita indentacao e comentarios.
+ * Nao e um teste; rodar com:
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes br.ufma.ecp.ScannerBenchmark
+ */
+public class ScannerBenchmark {
+
+    static byte[] generate(int subroutines) {
+        var sb = new StringBuilder("class Gerada {\n");
+        for (int i = 0; i < subroutines; i++) {
+            sb.append("    /**\n");
+            sb.append("     * Subrotina gerada numero ").append(i).append(".\n");
+            sb.append("     * Recebe dois inteiros e devolve a soma deles, sem nenhum efeito colateral.\n");
+            sb.append("     */\n");
+            sb.append("    function int f").append(i).append("(int a, int b) {\n");
+            sb.append("                    // comentario de linha bem comprido so para ocupar espaco\n");
+            sb.append("                    return a + b;\n");
+            sb.append("    }\n\n");
+        }
+        return sb.append("}\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // o laco que o Scanner usava antes: um byte por vez
+    static int scalarSkip(ByteBuffer input, int length) {
+        int i = 0, tokens = 0;
+        while (i < length) {
+            byte b = input.get(i);
+            if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                i++;
+            } else if (b == '/' && i + 1 < length && input.get(i + 1) == '/') {
+                while (i < length && input.get(i) != '\n')
+                    i++;
+            } else if (b == '/' && i + 1 < length && input.get(i + 1) == '*') {
+                i += 2;
+                while (!(input.get(i) == '*' && input.get(i + 1) == '/'))
+                    i++;
+                i += 2;
+            } else {
+                tokens++;
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    static int vectorSkip(ByteBuffer input, int length) {
+        int i = 0, tokens = 0;
+        while (i < length) {
+            i = ByteSearch.skipSpaces(input, i, length);
+            if (i >= length)
+                break;
+            byte b = input.get(i);
+            if (b == '/' && i + 1 < length && input.get(i + 1) == '/') {
+                i = ByteSearch.indexOfNewline(input, i, length);
+            } else if (b == '/' && i + 1 < length && input.get(i + 1) == '*') {
+                i = ByteSearch.indexOfCommentEnd(input, i + 2, length) + 2;
+            } else {
+                tokens++;
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    static double megabytesPerSecond(int bytes, long nanos, int rounds) {
+        return (double) bytes * rounds / (1 << 20) / (nanos / 1e9);
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[] bytes = generate(20000);
+        var input = ByteBuffer.wrap(bytes);
+        int rounds = 50;
+
+        for (int warmup = 0; warmup < 10; warmup++) {
+            scalarSkip(input, bytes.length);
+            vectorSkip(input, bytes.length);
+            TokenArray.tokenize(bytes);
+        }
+
+        long t0 = System.nanoTime();
+        int a = 0;
+        for (int r = 0; r < rounds; r++)
+            a += scalarSkip(input, bytes.length);
+        long scalar = System.nanoTime() - t0;
+
+        t0 = System.nanoTime();
+        int b = 0;
+        for (int r = 0; r < rounds; r++)
+            b += vectorSkip(input, bytes.length);
+        long vector = System.nanoTime() - t0;
+
+        t0 = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            TokenArray.tokenize(bytes);
+        long scanner = System.nanoTime() - t0;
+
+        // XML dos tokens: Token.toString x TokenXmlWriter
+        var sink = new ByteArrayOutputStream(bytes.length * 4);
+        t0 = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            sink.reset();
+            var xml = new StringBuilder("<tokens>\r\n");
+            var scan = new Scanner(bytes);
+            for (Token tk = scan.nextToken(); tk.type != TokenType.EOF; tk = scan.nextToken())
+                xml.append(tk).append("\r\n");
+            xml.append("</tokens>\r\n");
+            sink.writeBytes(xml.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        long toString = System.nanoTime() - t0;
+
+        t0 = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            sink.reset();
+            new TokenXmlWriter(sink).write(new Source(bytes), new Diagnostics());
+        }
+        long xmlWriter = System.nanoTime() - t0;
+
+        System.out.printf("entrada: %d bytes, %d rodadas (checagem %b)%n", bytes.length, rounds, a == b);
+        System.out.printf("laco byte a byte : %8.1f MB/s%n", megabytesPerSecond(bytes.length, scalar, rounds));
+        System.out.printf("ByteSearch       : %8.1f MB/s%n", megabytesPerSecond(bytes.length, vector, rounds));
+        System.out.printf("TokenArray inteiro: %7.1f MB/s%n", megabytesPerSecond(bytes.length, scanner, rounds));
+        System.out.printf("XML Token.toString: %7.1f MB/s%n", megabytesPerSecond(bytes.length, toString, rounds));
+        System.out.printf("TokenXmlWriter   : %8.1f MB/s%n", megabytesPerSecond(bytes.length, xmlWriter, rounds));
+    }
+
+}
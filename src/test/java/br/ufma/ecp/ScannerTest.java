@@ -1,12 +1,22 @@
 package br.ufma.ecp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
+import br.ufma.ecp.token.ByteSearch;
+import br.ufma.ecp.token.Interner;
+import br.ufma.ecp.token.Source;
 import br.ufma.ecp.token.Token;
 import br.ufma.ecp.token.TokenType;
 
@@ -24,6 +34,40 @@ public class ScannerTest extends TestSupport {
         }
     }
     
+    @Test
+    public void testTokenLinesAndValues () {
+        String input = "let x\n  = 345; // fim\n/* bloco\n */ \"ola\"";
+        Scanner scan = new Scanner (input.getBytes());
+
+        Token tk = scan.nextToken();
+        assertEquals(TokenType.LET, tk.type);
+        assertEquals(1, tk.line());
+        tk = scan.nextToken();
+        assertEquals("x", tk.lexeme());
+        tk = scan.nextToken();
+        assertEquals(TokenType.EQ, tk.type);
+        assertEquals(2, tk.line());
+        tk = scan.nextToken();
+        assertEquals(345, tk.intValue());
+        scan.nextToken();
+        tk = scan.nextToken();
+        assertEquals(TokenType.STRING, tk.type);
+        assertEquals("ola", tk.lexeme());
+        assertEquals(4, tk.line());
+    }
+
+    @Test
+    public void testKeywordsAndIdentifiers () {
+        String input = "field false fields fals constructor constructors _do do1 do";
+        Scanner scan = new Scanner (input.getBytes());
+        TokenType[] expected = { TokenType.FIELD, TokenType.FALSE, TokenType.IDENT, TokenType.IDENT,
+            TokenType.CONSTRUCTOR, TokenType.IDENT, TokenType.IDENT, TokenType.IDENT, TokenType.DO };
+        for (TokenType type : expected) {
+            assertEquals(type, scan.nextToken().type);
+        }
+        assertEquals(TokenType.EOF, scan.nextToken().type);
+    }
+
     @Test
     public void testScannerWithSquareGame() throws IOException {
         var input = fromFile("Square/SquareGame.jack");
@@ -82,6 +126,241 @@ public class ScannerTest extends TestSupport {
         assertEquals(expectedResult, result.toString());
     }
 
-    
-    
+    @Test
+    public void testStreamScannerMatchesScanner() throws IOException {
+        for (String file : new String[] { "Square/SquareGame.jack", "Pong/PongGame.jack", "ArrayTest/Main.jack" }) {
+            var input = fromFile(file).getBytes(StandardCharsets.UTF_8);
+            var scanner = new Scanner(input);
+            // buffer pequeno para forcar tokens e comentarios na fronteira
+            var stream = new StreamScanner(Channels.newChannel(new ByteArrayInputStream(input)), 7);
+
+            Token expected, actual;
+            do {
+                expected = scanner.nextToken();
+                actual = stream.nextToken();
+                assertEquals(expected.type, actual.type);
+                assertEquals(expected.lexeme(), actual.lexeme());
+                assertEquals(expected.line(), actual.line());
+                assertEquals(expected.column(), actual.column());
+            } while (expected.type != TokenType.EOF);
+        }
+    }
+
+    @Test
+    public void testStreamScannerManyConsecutiveComments() {
+        var input = ("// c\n/* c */\n".repeat(20_000) + "x").getBytes(StandardCharsets.UTF_8);
+        var stream = new StreamScanner(Channels.newChannel(new ByteArrayInputStream(input)), 64);
+
+        Token token = stream.nextToken();
+        assertEquals(TokenType.IDENT, token.type);
+        assertEquals("x", token.lexeme());
+        assertEquals(40_001, token.line());
+        assertEquals(TokenType.EOF, stream.nextToken().type);
+    }
+
+    @Test
+    public void testScannerManyConsecutiveComments() {
+        var input = ("// c\n/* c */\n".repeat(20_000) + "x").getBytes(StandardCharsets.UTF_8);
+
+        var scanner = new Scanner(input);
+        assertEquals("x", scanner.nextToken().lexeme());
+        assertEquals(TokenType.EOF, scanner.nextToken().type);
+
+        var tokens = TokenArray.tokenize(input);
+        assertEquals(2, tokens.size());
+        assertEquals(TokenType.IDENT, tokens.type(0));
+        assertEquals(40_001, tokens.line(0));
+
+        var pool = new ForkJoinPool(2);
+        try {
+            tokens = ParallelTokenizer.tokenize(ByteBuffer.wrap(input), 4, pool);
+            assertEquals(2, tokens.size());
+            assertEquals(40_001, tokens.line(0));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testTokenArrayMatchesScanner() throws IOException {
+        var input = fromFile("Pong/PongGame.jack").getBytes(StandardCharsets.UTF_8);
+        var scanner = new Scanner(input);
+        var tokens = TokenArray.tokenize(input);
+
+        for (int i = 0; i < tokens.size(); i++) {
+            Token expected = scanner.nextToken();
+            assertEquals(expected.type, tokens.type(i));
+            assertEquals(expected.lexeme(), tokens.lexeme(i));
+            assertEquals(expected.line(), tokens.line(i));
+        }
+        assertEquals(TokenType.EOF, tokens.type(tokens.size() - 1));
+    }
+
+    @Test
+    public void testParallelTokenizerMatchesSequential() throws IOException {
+        var builder = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            builder.append(fromFile("Pong/PongGame.jack"));
+            builder.append(fromFile("Square/SquareGame.jack"));
+            builder.append("/* comentario\n com \"aspas\" e // barras */ \"string // com /* coisas\"\n");
+        }
+        var input = builder.toString().getBytes(StandardCharsets.UTF_8);
+
+        var expected = TokenArray.tokenize(input);
+        var actual = ParallelTokenizer.tokenize(ByteBuffer.wrap(input), 13, ForkJoinPool.commonPool());
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.type(i), actual.type(i));
+            assertEquals(expected.offset(i), actual.offset(i));
+            assertEquals(expected.length(i), actual.length(i));
+            assertEquals(expected.line(i), actual.line(i));
+        }
+    }
+
+    @Test
+    public void testIdentifiersAreInterned() {
+        // dois arquivos da mesma compilacao compartilham a tabela
+        var interner = new Interner();
+        Token a = new Scanner(new Source(ByteBuffer.wrap("Output.printInt".getBytes()), "A.jack", interner),
+                new Diagnostics()).nextToken();
+        Token b = new Scanner(new Source(ByteBuffer.wrap("  Output".getBytes()), "B.jack", interner),
+                new Diagnostics()).nextToken();
+
+        assertEquals(a.id, b.id);
+        assertSame(a.lexeme(), b.lexeme());
+        assertEquals("Output", interner.name(a.id));
+
+        // uma compilacao nova comeca com a tabela vazia
+        Token c = new Scanner("Output".getBytes()).nextToken();
+        assertEquals("Output", c.lexeme());
+        assertEquals(Interner.THIS_ID + 1, c.id);
+    }
+
+    @Test
+    public void testIncrementalRelexMatchesFullScan() throws IOException {
+        var text = fromFile("Pong/PongGame.jack");
+        var tokens = TokenArray.tokenize(text.getBytes(StandardCharsets.UTF_8));
+        String[] snippets = { "", "x", " ", "\n", "let y = 1;", "/* novo\n comentario */", "// linha\n", "\"a b\"", "42", "(" };
+        var random = new Random(7);
+
+        for (int n = 0; n < 300; n++) {
+            int offset = random.nextInt(text.length());
+            // nao quebra os delimitadores de comentario
+            if (offset > 0 && "/*".indexOf(text.charAt(offset - 1)) >= 0)
+                continue;
+            int removed = 0;
+            while (removed < 8 && offset + removed < text.length() && "\"/*".indexOf(text.charAt(offset + removed)) < 0
+                    && random.nextBoolean())
+                removed++;
+            var inserted = snippets[random.nextInt(snippets.length)];
+
+            var delta = IncrementalLexer.relex(tokens, offset, removed, inserted.getBytes(StandardCharsets.UTF_8));
+            tokens = delta.apply(tokens);
+            text = text.substring(0, offset) + inserted + text.substring(offset + removed);
+
+            var expected = TokenArray.tokenize(text.getBytes(StandardCharsets.UTF_8));
+            assertEquals(expected.size(), tokens.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.type(i), tokens.type(i));
+                assertEquals(expected.offset(i), tokens.offset(i));
+                assertEquals(expected.length(i), tokens.length(i));
+                assertEquals(expected.line(i), tokens.line(i));
+            }
+        }
+    }
+
+    @Test
+    public void testByteSearchMatchesScalarLoops() {
+        var random = new Random(3);
+        byte[] alphabet = " \t\r\n*/ax\0".getBytes(StandardCharsets.UTF_8);
+        for (int n = 0; n < 2000; n++) {
+            byte[] bytes = new byte[random.nextInt(40)];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = alphabet[random.nextInt(alphabet.length)];
+            var input = ByteBuffer.wrap(bytes);
+            int from = bytes.length == 0 ? 0 : random.nextInt(bytes.length);
+
+            int spaces = from;
+            while (spaces < bytes.length && " \t\r\n".indexOf(bytes[spaces]) >= 0)
+                spaces++;
+            assertEquals(spaces, ByteSearch.skipSpaces(input, from, bytes.length));
+
+            int newline = from;
+            while (newline < bytes.length && bytes[newline] != '\n' && bytes[newline] != 0)
+                newline++;
+            assertEquals(newline, ByteSearch.indexOfNewline(input, from, bytes.length));
+
+            int end = from;
+            while (end < bytes.length && bytes[end] != 0 && !(bytes[end] == '*' && end + 1 < bytes.length && bytes[end + 1] == '/'))
+                end++;
+            assertEquals(end, ByteSearch.indexOfCommentEnd(input, from, bytes.length));
+
+            int count = 0;
+            for (int i = from; i < bytes.length; i++)
+                if (bytes[i] == '\n')
+                    count++;
+            assertEquals(count, ByteSearch.countNewlines(input, from, bytes.length));
+        }
+    }
+
+
+    @Test
+    public void testTokenXmlWriterMatchesToString() throws IOException {
+        for (String file : new String[] { "Square/SquareGame.jack", "Pong/PongGame.jack", "ArrayTest/Main.jack" }) {
+            var input = fromFile(file).getBytes(StandardCharsets.UTF_8);
+
+            var expected = new StringBuilder("<tokens>\r\n");
+            var scanner = new Scanner(input);
+            for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken())
+                expected.append(tk).append("\r\n");
+            expected.append("</tokens>\r\n");
+
+            var out = new ByteArrayOutputStream();
+            new TokenXmlWriter(out).write(new Source(input), new Diagnostics());
+            assertEquals(file, expected.toString(), out.toString(StandardCharsets.UTF_8));
+
+            out.reset();
+            new TokenXmlWriter(out).write(TokenArray.tokenize(input));
+            assertEquals(file, expected.toString(), out.toString(StandardCharsets.UTF_8));
+
+            out.reset();
+            new TokenXmlWriter(out).write(new StreamScanner(Channels.newChannel(new ByteArrayInputStream(input)), 64));
+            assertEquals(file, expected.toString(), out.toString(StandardCharsets.UTF_8));
+        }
+
+        // dentro de strings tudo e escapado
+        var out = new ByteArrayOutputStream();
+        new TokenXmlWriter(out).write(new Source("\"a<b & \" x".getBytes(StandardCharsets.UTF_8)), new Diagnostics());
+        assertEquals("<tokens>\r\n<stringConstant> a&lt;b &amp;  </stringConstant>\r\n"
+                + "<identifier> x </identifier>\r\n</tokens>\r\n", out.toString(StandardCharsets.UTF_8));
+
+        out.reset();
+        new TokenXmlWriter(out).write(new StreamScanner(new ByteArrayInputStream("\"a<b & é\" x".getBytes(StandardCharsets.UTF_8))));
+        assertEquals("<tokens>\r\n<stringConstant> a&lt;b &amp; é </stringConstant>\r\n"
+                + "<identifier> x </identifier>\r\n</tokens>\r\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testUnterminatedCommentIsReported() {
+        var input = "let x = 1;\n  /* sem fim\n x".getBytes(StandardCharsets.UTF_8);
+
+        var diagnostics = new Diagnostics();
+        var scanner = new Scanner(new Source(ByteBuffer.wrap(input), "Main.jack"), diagnostics);
+        TokenType type;
+        do {
+            type = scanner.nextToken().type;
+        } while (type != TokenType.EOF);
+        assertEquals(1, diagnostics.count());
+        assertEquals("Main.jack:2:3: unterminated comment", diagnostics.all().get(0).toString());
+
+        var streamDiagnostics = new Diagnostics();
+        var stream = new StreamScanner(Channels.newChannel(new ByteArrayInputStream(input)), 4, "Main.jack",
+                streamDiagnostics);
+        do {
+            type = stream.nextToken().type;
+        } while (type != TokenType.EOF);
+        assertEquals(diagnostics.all(), streamDiagnostics.all());
+    }
+
 }